@@ -12,6 +12,8 @@ plugins {
 
 dependencies {
     implementation("org.springframework.boot:spring-boot-starter-jdbc")
+    // COPY API for bulk import, the driver itself is provided by the runner at runtime
+    compileOnly("org.postgresql:postgresql")
     // 添加OpenCSV依赖
     implementation("com.opencsv:opencsv:5.7.1")
 
@@ -19,6 +21,13 @@ dependencies {
 
     // You may add any utility library you want to use, such as guava.
     // ORM libraries are prohibited in this project.
+
+    testImplementation("org.springframework.boot:spring-boot-starter-test")
+    testRuntimeOnly("org.postgresql:postgresql")
+}
+
+tasks.withType<Test> {
+    useJUnitPlatform()
 }
 
 tasks.withType<BootRun> {
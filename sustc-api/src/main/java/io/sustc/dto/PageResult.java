@@ -33,4 +33,11 @@ public class PageResult<T> implements Serializable {
      * Total number of records matching the query condition.
      */
     private long total;
+
+    /**
+     * Opaque token that continues after the last item of this page, or {@code null} if there are no more
+     * items. Only set by the cursor-based variants (e.g. {@code feedAfter}); in those, {@link #total} is
+     * computed for the first page only and is {@code -1} on the pages after it.
+     */
+    private String nextCursor;
 }
@@ -0,0 +1,36 @@
+package io.sustc.service;
+
+import io.sustc.dto.PageResult;
+import io.sustc.dto.RecipeRecord;
+
+/**
+ * Cursor-based paging for {@link RecipeService}, kept apart so that the graded interface stays unchanged.
+ */
+public interface RecipeKeysetService {
+
+    /**
+     * Cursor-based variant of {@link RecipeService#searchRecipes}: returns the {@code size} recipes after
+     * {@code cursor} in the same order, without the cost of skipping the earlier pages.
+     *
+     * <p>Pass {@code null} for the first page, then the {@link PageResult#getNextCursor()} of the previous
+     * page, with the same filters and sort. The cursor is {@code null} once there is nothing more to read.
+     * {@code total} is only computed for the first page and is {@code -1} afterwards.
+     *
+     * @param keyword   fuzzy search term for name/description (nullable)
+     * @param category  category filter (nullable)
+     * @param minRating minimum rating filter (nullable)
+     * @param cursor    continuation token of the previous page, null for the first page
+     * @param size      page size
+     * @param sort      sorting criteria (nullable)
+     * @return a {@link PageResult} with the next recipes and the cursor after them
+     * @throws IllegalArgumentException if {@code size <= 0} or {@code cursor} was not issued for this sort
+     */
+    PageResult<RecipeRecord> searchRecipesAfter(
+            String keyword,
+            String category,
+            Double minRating,
+            String cursor,
+            Integer size,
+            String sort
+    );
+}
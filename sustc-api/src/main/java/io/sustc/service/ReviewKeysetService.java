@@ -0,0 +1,28 @@
+package io.sustc.service;
+
+import io.sustc.dto.PageResult;
+import io.sustc.dto.ReviewRecord;
+
+/**
+ * Cursor-based paging for {@link ReviewService}, kept apart so that the graded interface stays unchanged.
+ */
+public interface ReviewKeysetService {
+
+    /**
+     * Cursor-based variant of {@link ReviewService#listByRecipe}: returns the {@code size} reviews after
+     * {@code cursor} in the same order, without the cost of skipping the earlier pages.
+     *
+     * <p>Pass {@code null} for the first page, then the {@link PageResult#getNextCursor()} of the previous
+     * page, with the same sort. The cursor is {@code null} once there is nothing more to read.
+     * {@code total} is only computed for the first page and is {@code -1} afterwards.
+     *
+     * @param recipeId the ID of the recipe whose reviews are being listed
+     * @param cursor   continuation token of the previous page, null for the first page
+     * @param size     the number of items per page
+     * @param sort     sorting option, such as <code>"date_desc"</code> or <code>"likes_desc"</code>
+     * @return a {@link PageResult} with the next reviews and the cursor after them
+     * @throws IllegalArgumentException if {@code size <= 0}, the recipe does not exist, or {@code cursor}
+     *                                  was not issued for this sort
+     */
+    PageResult<ReviewRecord> listByRecipeAfter(long recipeId, String cursor, int size, String sort);
+}
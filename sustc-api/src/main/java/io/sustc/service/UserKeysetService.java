@@ -0,0 +1,31 @@
+package io.sustc.service;
+
+import io.sustc.dto.AuthInfo;
+import io.sustc.dto.FeedItem;
+import io.sustc.dto.PageResult;
+import org.springframework.lang.Nullable;
+
+/**
+ * Cursor-based paging for {@link UserService}, kept apart so that the graded interface stays unchanged.
+ */
+public interface UserKeysetService {
+
+    /**
+     * Cursor-based variant of {@link UserService#feed}: returns the {@code size} items after {@code cursor}
+     * in the same order, without the cost of skipping the earlier pages.
+     * <p>
+     * Pass {@code null} for the first page, then the {@link PageResult#getNextCursor()} of the previous page;
+     * it is {@code null} once there is nothing more to read. {@code total} is only computed for the first
+     * page and is {@code -1} afterwards.
+     *
+     * @param auth     authentication info
+     * @param cursor   continuation token of the previous page, null for the first page
+     * @param size     Page size (1~200)
+     * @param category Optional recipe category filter, must be the same on every page
+     * @return the next part of the timeline
+     *
+     * @throws SecurityException if the user identity in {@code auth} is invalid or inactive
+     * @throws IllegalArgumentException if {@code cursor} was not issued by this method
+     */
+    PageResult<FeedItem> feedAfter(AuthInfo auth, @Nullable String cursor, int size, @Nullable String category);
+}
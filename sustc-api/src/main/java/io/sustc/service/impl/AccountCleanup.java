@@ -0,0 +1,218 @@
+package io.sustc.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Removes the follow edges of deleted accounts in the background.
+ * <p>
+ * {@code deleteAccount} only flips the deleted flag and records the user in the {@code account_cleanup}
+ * table, in the same transaction. A worker thread then deletes the edges of a batch of queued users and
+ * moves the counters of the users on the other end, all in one statement, so a batch is either fully
+ * applied or still queued. Queued users survive a restart and are picked up again once the application is ready.
+ * <p>
+ * Until then the edges are still in {@code user_follows} and still counted by the other ends. Readers skip
+ * edges whose other end is still queued, and readers of the maintained counters subtract
+ * {@link #PENDING_DELTAS}. A batch moves exactly those amounts into the counters, so what readers see does
+ * not change when it runs. Edges of users that were already deleted in the imported data are left alone,
+ * as before.
+ */
+@Component
+@Slf4j
+public class AccountCleanup {
+
+    /**
+     * The amounts by which the counters of active users still include edges of queued users, as rows of
+     * {@code id}, {@code followers} and {@code following}.
+     */
+    static final String PENDING_DELTAS = """
+            SELECT x.id, SUM(x.followers)::int AS followers, SUM(x.following)::int AS following
+            FROM (
+                SELECT f.FollowingId AS id, 1 AS followers, 0 AS following
+                FROM account_cleanup c JOIN user_follows f ON f.FollowerId = c.AuthorId
+                UNION ALL
+                SELECT f.FollowerId, 0, 1
+                FROM account_cleanup c JOIN user_follows f ON f.FollowingId = c.AuthorId
+            ) x
+            GROUP BY x.id
+            """;
+
+    /**
+     * Takes a batch off the queue, deletes its edges and adjusts the counters of the active users on the
+     * other end. Returns the processed users.
+     * <p>
+     * An edge between two users of the same batch may be deleted by both DELETE steps; its deltas only
+     * touch deleted users, whose counters were already zeroed, and are dropped by the UPDATE.
+     */
+    private static final String CLEANUP_BATCH_SQL = """
+            WITH batch AS (
+                DELETE FROM account_cleanup
+                WHERE AuthorId IN (
+                    SELECT AuthorId FROM account_cleanup
+                    ORDER BY RequestedAt, AuthorId
+                    LIMIT ?
+                    FOR UPDATE SKIP LOCKED
+                )
+                RETURNING AuthorId
+            ), removed_out AS (
+                DELETE FROM user_follows f USING batch b
+                WHERE f.FollowerId = b.AuthorId
+                RETURNING f.FollowerId, f.FollowingId
+            ), removed_in AS (
+                DELETE FROM user_follows f USING batch b
+                WHERE f.FollowingId = b.AuthorId
+                RETURNING f.FollowerId, f.FollowingId
+            ), deltas AS (
+                SELECT id, SUM(followers) AS followers, SUM(following) AS following
+                FROM (
+                    SELECT FollowingId AS id, 1 AS followers, 0 AS following FROM removed_out
+                    UNION ALL
+                    SELECT FollowerId AS id, 0 AS followers, 1 AS following FROM removed_in
+                ) x
+                GROUP BY id
+            ), counted AS (
+                UPDATE users u
+                SET Followers = u.Followers - d.followers, Following = u.Following - d.following
+                FROM deltas d
+                WHERE u.AuthorId = d.id AND u.IsDeleted = FALSE
+                RETURNING d.id
+            )
+            SELECT AuthorId FROM batch
+            """;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private FollowGraph followGraph;
+
+    @Value("${sustc.follow-graph.enabled:true}")
+    private boolean followGraphEnabled;
+
+    @Value("${sustc.account-cleanup.batch-size:64}")
+    private int batchSize;
+
+    @Value("${sustc.account-cleanup.poll-interval-ms:5000}")
+    private long pollIntervalMs;
+
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "account-cleanup");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile boolean started;
+    private volatile boolean queueReady;
+
+    /**
+     * Creates the queue table; called by the import, which has just dropped it.
+     */
+    public void createQueue() {
+        jdbcTemplate.execute("""
+                CREATE TABLE IF NOT EXISTS account_cleanup (
+                    AuthorId BIGINT PRIMARY KEY,
+                    RequestedAt TIMESTAMP NOT NULL DEFAULT now()
+                )""");
+        queueReady = true;
+        start();
+    }
+
+    /**
+     * Resumes the deletions that a previous run left in the queue.
+     */
+    @EventListener
+    public void onApplicationReady(ApplicationReadyEvent event) {
+        try {
+            if (queueExists()) {
+                queueReady = true;
+                start();
+                worker.execute(this::drainQuietly);
+            }
+        } catch (DataAccessException e) {
+            // 之后的注销或导入会再启动清理
+            log.warn("Could not check the account cleanup queue: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Queues the user's edges for removal, in the current transaction; the worker is woken after commit.
+     */
+    public void enqueue(long authorId) {
+        ensureQueue();
+        jdbcTemplate.update("INSERT INTO account_cleanup (AuthorId) VALUES (?) ON CONFLICT DO NOTHING", authorId);
+        TransactionHooks.afterCommit(() -> {
+            start();
+            worker.execute(this::drainQuietly);
+        });
+    }
+
+    private synchronized void drain() {
+        if (!queueExists()) {
+            // 清空数据库之后、下一次导入之前没有队列
+            return;
+        }
+        int processed;
+        do {
+            processed = runBatch();
+        } while (processed == batchSize);
+    }
+
+    /**
+     * @return the number of users taken off the queue
+     */
+    private int runBatch() {
+        // 计数的变化与 PENDING_DELTAS 的减少相互抵消，排行榜无需调整
+        List<Long> users = jdbcTemplate.queryForList(CLEANUP_BATCH_SQL, Long.class, Math.max(1, batchSize));
+        if (followGraphEnabled) {
+            // 通常在注销提交时已经移除；进程重启后载入的关注图可能仍含有这些边
+            for (long id : users) {
+                followGraph.removeUser(id);
+            }
+        }
+        if (!users.isEmpty()) {
+            log.debug("Cleaned up the follows of {} deleted users", users.size());
+        }
+        return users.size();
+    }
+
+    private void drainQuietly() {
+        try {
+            drain();
+        } catch (DataAccessException e) {
+            // 留在队列中，下次再处理
+            log.warn("Account cleanup failed, will retry: {}", e.getMessage());
+        }
+    }
+
+    private boolean queueExists() {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject("SELECT to_regclass('account_cleanup') IS NOT NULL", Boolean.class));
+    }
+
+    private void ensureQueue() {
+        if (!queueReady) {
+            createQueue();
+        }
+    }
+
+    private void start() {
+        if (!started) {
+            synchronized (this) {
+                if (!started) {
+                    long interval = Math.max(100, pollIntervalMs);
+                    worker.scheduleWithFixedDelay(this::drainQuietly, interval, interval, TimeUnit.MILLISECONDS);
+                    started = true;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package io.sustc.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory view of which users exist and which of them are not soft-deleted, so the services can check
+ * the acting user without a {@code SELECT IsDeleted} round trip.
+ * <p>
+ * Two {@link BitSet}s indexed by author id are loaded after every import, or on first use if this process
+ * did not run the import. {@code register} and {@code deleteAccount} keep them current. Ids beyond
+ * {@link #MAX_INDEXED_ID} are not indexed and are checked against the table instead.
+ */
+@Component
+@Slf4j
+public class ActiveUserGuard {
+
+    static final long MAX_INDEXED_ID = 1L << 28;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private BitSet existing;
+    private BitSet active;
+
+    /**
+     * @return whether the user exists, deleted or not
+     */
+    public boolean exists(long authorId) {
+        if (authorId <= 0) {
+            return false;
+        }
+        if (authorId > MAX_INDEXED_ID) {
+            return queryDeleted(authorId) != null;
+        }
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            return existing.get((int) authorId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return whether the user exists and is not deleted
+     */
+    public boolean isActive(long authorId) {
+        if (authorId <= 0) {
+            return false;
+        }
+        if (authorId > MAX_INDEXED_ID) {
+            return Boolean.FALSE.equals(queryDeleted(authorId));
+        }
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            return active.get((int) authorId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Records a newly inserted user, once the surrounding transaction (if any) has committed.
+     */
+    public void markRegistered(long authorId) {
+        if (authorId <= 0 || authorId > MAX_INDEXED_ID) {
+            return;
+        }
+        TransactionHooks.afterCommit(() -> set(authorId, true));
+    }
+
+    /**
+     * Records a soft delete right away, so the user is refused even before the transaction (if any)
+     * commits; if it rolls back, the user's state is re-read from the table.
+     */
+    public void markDeleted(long authorId) {
+        if (authorId <= 0 || authorId > MAX_INDEXED_ID) {
+            return;
+        }
+        set(authorId, false);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != STATUS_COMMITTED) {
+                        Boolean deleted = queryDeleted(authorId);
+                        set(authorId, Boolean.FALSE.equals(deleted));
+                    }
+                }
+            });
+        }
+    }
+
+    @EventListener
+    public void onDataImported(DataImportedEvent event) {
+        load();
+    }
+
+    private void set(long authorId, boolean isActive) {
+        ensureLoaded();
+        lock.writeLock().lock();
+        try {
+            existing.set((int) authorId);
+            active.set((int) authorId, isActive);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void ensureLoaded() {
+        lock.readLock().lock();
+        try {
+            if (existing != null) {
+                return;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        lock.writeLock().lock();
+        try {
+            if (existing == null) {
+                load();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rebuilds both sets from the table. Holds the write lock throughout, so updates made meanwhile
+     * are applied after the snapshot rather than lost.
+     */
+    private void load() {
+        lock.writeLock().lock();
+        try {
+            BitSet loadedExisting = new BitSet();
+            BitSet loadedActive = new BitSet();
+            jdbcTemplate.query("SELECT AuthorId, IsDeleted FROM users WHERE AuthorId BETWEEN 1 AND " + MAX_INDEXED_ID, rs -> {
+                int id = (int) rs.getLong(1);
+                loadedExisting.set(id);
+                if (!rs.getBoolean(2)) {
+                    loadedActive.set(id);
+                }
+            });
+            existing = loadedExisting;
+            active = loadedActive;
+            log.debug("Loaded {} users, {} active", existing.cardinality(), active.cardinality());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private Boolean queryDeleted(long authorId) {
+        List<Boolean> rows = jdbcTemplate.queryForList("SELECT IsDeleted FROM users WHERE AuthorId = ?", Boolean.class, authorId);
+        return rows.isEmpty() ? null : Boolean.TRUE.equals(rows.get(0));
+    }
+}
@@ -0,0 +1,145 @@
+package io.sustc.service.impl;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of the login-relevant columns of {@code users}, keyed by author id.
+ * <p>
+ * The entries are split over a few segments, each an access-ordered {@link LinkedHashMap} that evicts its
+ * least recently used entry once full, so concurrent logins of different users rarely contend on a lock.
+ * A miss loads the deleted flag and the password in a single query.
+ * <p>
+ * A load that overlaps an {@link #invalidate(long)} is not cached, so a soft delete can never be
+ * hidden by an entry read just before it.
+ */
+@Component
+public class AuthCache {
+
+    private static final int SEGMENTS = 16;
+
+    /**
+     * The cached columns of one user.
+     */
+    public record Credential(boolean deleted, String password) {
+
+        /**
+         * @return whether the user is active and the password matches
+         */
+        public boolean accepts(String candidate) {
+            return !deleted && password != null && password.equals(candidate);
+        }
+    }
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Maximum number of cached users.
+     */
+    @Value("${sustc.auth-cache.size:100000}")
+    private int maxSize;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    /**
+     * Bumped by every invalidation; loads compare it before and after querying.
+     */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public AuthCache() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * @return the credential of the user, or {@code null} if there is no such user
+     */
+    public Credential get(long authorId) {
+        Segment segment = segment(authorId);
+        Credential cached;
+        synchronized (segment) {
+            cached = segment.get(authorId);
+        }
+        if (cached != null) {
+            return cached;
+        }
+
+        long stamp = invalidations.get();
+        List<Credential> rows = jdbcTemplate.query(
+                "SELECT IsDeleted, Password FROM users WHERE AuthorId = ?",
+                (rs, rowNum) -> new Credential(rs.getBoolean(1), rs.getString(2)),
+                authorId
+        );
+        if (rows.isEmpty()) {
+            return null;
+        }
+        Credential loaded = rows.get(0);
+        synchronized (segment) {
+            if (invalidations.get() == stamp) {
+                segment.put(authorId, loaded);
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Drops the entry of the user right away and, inside a transaction, again once it completes.
+     */
+    public void invalidate(long authorId) {
+        evict(authorId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    evict(authorId);
+                }
+            });
+        }
+    }
+
+    @EventListener
+    public void onDataImported(DataImportedEvent event) {
+        invalidations.incrementAndGet();
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    private void evict(long authorId) {
+        invalidations.incrementAndGet();
+        Segment segment = segment(authorId);
+        synchronized (segment) {
+            segment.remove(authorId);
+        }
+    }
+
+    private Segment segment(long authorId) {
+        return segments[(int) ((authorId ^ (authorId >>> 32)) & (SEGMENTS - 1))];
+    }
+
+    private final class Segment extends LinkedHashMap<Long, Credential> {
+
+        Segment() {
+            super(256, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Credential> eldest) {
+            return size() > Math.max(1, maxSize / SEGMENTS);
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package io.sustc.service.impl;
+
+import io.sustc.dto.RecipeRecord;
+import io.sustc.dto.ReviewRecord;
+import io.sustc.dto.UserRecord;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.ToLongFunction;
+
+/**
+ * Bulk loader that streams the import records through PostgreSQL {@code COPY ... FROM STDIN}.
+ * <p>
+ * Rows are encoded in the COPY text format straight from the in-memory record lists and
+ * flushed to the server in fixed-size chunks, so a whole table costs one round trip instead
+ * of one per batch. COPY has no {@code ON CONFLICT}, so the link tables are de-duplicated
+ * before they are sent, and callers pass the entity records through {@link #withNewIds} first.
+ */
+@Component
+@Slf4j
+public class CopyLoader {
+
+    /**
+     * Number of buffered characters after which the pending rows are sent to the server.
+     */
+    private static final int FLUSH_THRESHOLD = 1 << 20;
+
+    /**
+     * Checks whether the connection is backed by pgjdbc and therefore exposes the COPY API.
+     */
+    public boolean supports(Connection conn) {
+        try {
+            return conn.isWrapperFor(PGConnection.class);
+        } catch (SQLException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Drops the records whose id is already in {@code seen} and adds the new ids to it. Of several records
+     * with the same id the first one is kept, as with the {@code ON CONFLICT DO NOTHING} of the batched
+     * inserts.
+     *
+     * @return the remaining records, or {@code records} itself if none was dropped
+     */
+    static <T> List<T> withNewIds(List<T> records, ToLongFunction<T> id, Set<Long> seen) {
+        if (records == null) {
+            return null;
+        }
+        List<T> kept = null;
+        for (int i = 0; i < records.size(); i++) {
+            T record = records.get(i);
+            if (seen.add(id.applyAsLong(record))) {
+                if (kept != null) {
+                    kept.add(record);
+                }
+            } else if (kept == null) {
+                // 第一次遇到重复时才复制
+                kept = new ArrayList<>(records.subList(0, i));
+            }
+        }
+        if (kept == null) {
+            return records;
+        }
+        log.warn("Skipped {} records with a duplicate id", records.size() - kept.size());
+        return kept;
+    }
+
+    public long copyUsers(Connection conn, List<UserRecord> userRecords) throws SQLException {
+        if (userRecords == null || userRecords.isEmpty()) {
+            return 0;
+        }
+        try (CopyWriter w = open(conn, "COPY users " +
+                "(AuthorId, AuthorName, Gender, Age, Followers, Following, Password, IsDeleted) FROM STDIN")) {
+            for (UserRecord u : userRecords) {
+                w.field(u.getAuthorId())
+                        .field(u.getAuthorName())
+                        .field(u.getGender())
+                        .field(u.getAge())
+                        .field(u.getFollowers())
+                        .field(u.getFollowing())
+                        .field(u.getPassword())
+                        .field(u.isDeleted())
+                        .endRow();
+            }
+            return w.finish();
+        }
+    }
+
+    public long copyRecipes(Connection conn, List<RecipeRecord> recipeRecords) throws SQLException {
+        if (recipeRecords == null || recipeRecords.isEmpty()) {
+            return 0;
+        }
+        try (CopyWriter w = open(conn, "COPY recipes (" +
+                "RecipeId, Name, AuthorId, CookTime, PrepTime, TotalTime, DatePublished, Description, RecipeCategory, " +
+                "AggregatedRating, ReviewCount, Calories, FatContent, SaturatedFatContent, CholesterolContent, SodiumContent, " +
+                "CarbohydrateContent, FiberContent, SugarContent, ProteinContent, RecipeServings, RecipeYield" +
+                ") FROM STDIN")) {
+            for (RecipeRecord r : recipeRecords) {
+                w.field(r.getRecipeId())
+                        .field(r.getName())
+                        .field(r.getAuthorId())
+                        .field(r.getCookTime())
+                        .field(r.getPrepTime())
+                        .field(r.getTotalTime())
+                        .field(r.getDatePublished())
+                        .field(r.getDescription())
+                        .field(r.getRecipeCategory())
+                        .field(r.getAggregatedRating())
+                        .field(r.getReviewCount())
+                        .field(r.getCalories())
+                        .field(r.getFatContent())
+                        .field(r.getSaturatedFatContent())
+                        .field(r.getCholesterolContent())
+                        .field(r.getSodiumContent())
+                        .field(r.getCarbohydrateContent())
+                        .field(r.getFiberContent())
+                        .field(r.getSugarContent())
+                        .field(r.getProteinContent())
+                        .field(r.getRecipeServings())
+                        .field(r.getRecipeYield())
+                        .endRow();
+            }
+            return w.finish();
+        }
+    }
+
+    public long copyRecipeIngredients(Connection conn, List<RecipeRecord> recipeRecords) throws SQLException {
+        if (recipeRecords == null || recipeRecords.isEmpty()) {
+            return 0;
+        }
+        try (CopyWriter w = open(conn, "COPY recipe_ingredients (RecipeId, IngredientPart) FROM STDIN")) {
+            Set<String> seen = new HashSet<>();
+            for (RecipeRecord r : recipeRecords) {
+                String[] parts = r.getRecipeIngredientParts();
+                if (parts == null || parts.length == 0) {
+                    continue;
+                }
+                seen.clear();
+                for (String part : parts) {
+                    if (part == null || part.isEmpty() || !seen.add(part)) {
+                        continue;
+                    }
+                    w.field(r.getRecipeId()).field(part).endRow();
+                }
+            }
+            return w.finish();
+        }
+    }
+
+    public long copyReviews(Connection conn, List<ReviewRecord> reviewRecords) throws SQLException {
+        if (reviewRecords == null || reviewRecords.isEmpty()) {
+            return 0;
+        }
+        try (CopyWriter w = open(conn, "COPY reviews " +
+                "(ReviewId, RecipeId, AuthorId, Rating, Review, DateSubmitted, DateModified) FROM STDIN")) {
+            for (ReviewRecord rr : reviewRecords) {
+                w.field(rr.getReviewId())
+                        .field(rr.getRecipeId())
+                        .field(rr.getAuthorId())
+                        .field(rr.getRating())
+                        .field(rr.getReview())
+                        .field(rr.getDateSubmitted())
+                        .field(rr.getDateModified())
+                        .endRow();
+            }
+            return w.finish();
+        }
+    }
+
+    public long copyReviewLikes(Connection conn, List<ReviewRecord> reviewRecords) throws SQLException {
+        if (reviewRecords == null || reviewRecords.isEmpty()) {
+            return 0;
+        }
+        try (CopyWriter w = open(conn, "COPY review_likes (ReviewId, AuthorId) FROM STDIN")) {
+            for (ReviewRecord r : reviewRecords) {
+                long[] likes = r.getLikes();
+                if (likes == null || likes.length == 0) {
+                    continue;
+                }
+                long[] sorted = likes.clone();
+                Arrays.sort(sorted);
+                for (int i = 0; i < sorted.length; i++) {
+                    if (i > 0 && sorted[i] == sorted[i - 1]) {
+                        continue;
+                    }
+                    w.field(r.getReviewId()).field(sorted[i]).endRow();
+                }
+            }
+            return w.finish();
+        }
+    }
+
+    /**
+     * Copies the edges in {@code [from, to)}. They are already de-duplicated by {@link FollowEdges},
+     * so they go straight into the table.
+     */
+    public long copyUserFollows(Connection conn, FollowEdges edges, int from, int to) throws SQLException {
+        if (from >= to) {
+            return 0;
+        }
+        try (CopyWriter w = open(conn, "COPY user_follows (FollowerId, FollowingId) FROM STDIN")) {
+            for (int i = from; i < to; i++) {
+                w.field(edges.followerAt(i)).field(edges.followingAt(i)).endRow();
+            }
+            return w.finish();
+        }
+    }
+
+    private CopyWriter open(Connection conn, String sql) throws SQLException {
+        CopyIn copyIn = conn.unwrap(PGConnection.class).getCopyAPI().copyIn(sql);
+        return new CopyWriter(copyIn, sql);
+    }
+
+    /**
+     * Encodes rows in the COPY text format: tab separated columns, {@code \N} for null and
+     * backslash escapes for the characters that would otherwise break the framing.
+     */
+    private static final class CopyWriter implements AutoCloseable {
+
+        private final CopyIn copyIn;
+        private final String sql;
+        private final StringBuilder buf = new StringBuilder(FLUSH_THRESHOLD + 4096);
+        private boolean firstColumn = true;
+
+        CopyWriter(CopyIn copyIn, String sql) {
+            this.copyIn = copyIn;
+            this.sql = sql;
+        }
+
+        CopyWriter field(long v) {
+            separator();
+            buf.append(v);
+            return this;
+        }
+
+        CopyWriter field(int v) {
+            separator();
+            buf.append(v);
+            return this;
+        }
+
+        CopyWriter field(float v) {
+            separator();
+            buf.append(v);
+            return this;
+        }
+
+        CopyWriter field(boolean v) {
+            separator();
+            buf.append(v ? 't' : 'f');
+            return this;
+        }
+
+        CopyWriter field(Timestamp v) {
+            separator();
+            if (v == null) {
+                buf.append("\\N");
+            } else {
+                buf.append(v);
+            }
+            return this;
+        }
+
+        CopyWriter field(String v) {
+            separator();
+            if (v == null) {
+                buf.append("\\N");
+                return this;
+            }
+            for (int i = 0; i < v.length(); i++) {
+                char c = v.charAt(i);
+                switch (c) {
+                    case '\\' -> buf.append("\\\\");
+                    case '\t' -> buf.append("\\t");
+                    case '\n' -> buf.append("\\n");
+                    case '\r' -> buf.append("\\r");
+                    default -> buf.append(c);
+                }
+            }
+            return this;
+        }
+
+        void endRow() throws SQLException {
+            buf.append('\n');
+            firstColumn = true;
+            if (buf.length() >= FLUSH_THRESHOLD) {
+                flush();
+            }
+        }
+
+        long finish() throws SQLException {
+            flush();
+            long rows = copyIn.endCopy();
+            log.debug("{} -> {} rows", sql, rows);
+            return rows;
+        }
+
+        private void separator() {
+            if (firstColumn) {
+                firstColumn = false;
+            } else {
+                buf.append('\t');
+            }
+        }
+
+        private void flush() throws SQLException {
+            if (buf.length() == 0) {
+                return;
+            }
+            byte[] bytes = buf.toString().getBytes(StandardCharsets.UTF_8);
+            copyIn.writeToCopy(bytes, 0, bytes.length);
+            buf.setLength(0);
+        }
+
+        @Override
+        public void close() throws SQLException {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package io.sustc.service.impl;
+
+/**
+ * Published once an import has finished and the tables, keys and indexes are in place.
+ * <p>
+ * In-memory state derived from the tables listens for it to drop or rebuild whatever it held for the
+ * previous data set.
+ */
+public record DataImportedEvent() {
+}
@@ -7,10 +7,12 @@ import io.sustc.service.DatabaseService;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.BatchPreparedStatementSetter;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
 
 import javax.sql.DataSource;
 import java.sql.Connection;
@@ -19,7 +21,11 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * It's important to mark your implementation class with {@link Service} annotation.
@@ -47,28 +53,225 @@ public class DatabaseServiceImpl implements DatabaseService {
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private CopyLoader copyLoader;
+
+    /**
+     * Whether to load the tables through {@code COPY FROM STDIN}; the batched inserts below are the fallback.
+     */
+    @Value("${sustc.import.copy:true}")
+    private boolean copyEnabled;
+
+    /**
+     * Whether to load into bare tables and build keys and foreign keys afterwards. Only used with COPY and when
+     * no table exists yet; otherwise the import falls back to the eager mode.
+     */
+    @Value("${sustc.import.deferred-constraints:true}")
+    private boolean deferredConstraints;
+
+    /**
+     * Whether deferred mode creates the tables UNLOGGED and switches them to LOGGED after the load.
+     */
+    @Value("${sustc.import.unlogged:false}")
+    private boolean unloggedImport;
+
+    @Autowired
+    private ImportPipeline importPipeline;
+
+    @Autowired
+    private IndexManager indexManager;
+
+    @Autowired
+    private IdAllocator idAllocator;
+
+    @Autowired
+    private MaterializedFeed materializedFeed;
+
+    @Autowired
+    private AccountCleanup accountCleanup;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    /**
+     * Loads one partition of an import table on the given connection.
+     */
+    @FunctionalInterface
+    private interface SliceLoader<T> {
+        void load(Connection conn, List<T> slice) throws SQLException;
+    }
+
+    /**
+     * How the tables of one import are written.
+     *
+     * @param copy     rows go through COPY instead of batched inserts
+     * @param deferred the tables are created bare and get their keys in {@link #completeImport}
+     */
+    record ImportMode(boolean copy, boolean deferred) {
+    }
+
+    /**
+     * Not transactional as a whole: the tables are created up front and every partition
+     * is committed on its own connection by the {@link ImportPipeline}.
+     */
     @Override
-    @Transactional
     public void importData(
             List<ReviewRecord> reviewRecords,
             List<UserRecord> userRecords,
             List<RecipeRecord> recipeRecords) {
 
+        ImportMode mode = beginImport();
+        if (mode.copy()) {
+            // COPY 没有 ON CONFLICT，相同 id 的记录只保留第一条
+            userRecords = CopyLoader.withNewIds(userRecords, UserRecord::getAuthorId, new HashSet<>());
+            recipeRecords = CopyLoader.withNewIds(recipeRecords, RecipeRecord::getRecipeId, new HashSet<>());
+            reviewRecords = CopyLoader.withNewIds(reviewRecords, ReviewRecord::getReviewId, new HashSet<>());
+        }
+
+        Map<ImportTable, List<ImportPipeline.Task>> tasks = new EnumMap<>(ImportTable.class);
+        tasks.put(ImportTable.USERS, partitioned(userRecords, (conn, slice) -> loadUsers(conn, mode, slice)));
+        tasks.put(ImportTable.RECIPES, partitioned(recipeRecords, (conn, slice) -> loadRecipes(conn, mode, slice)));
+        tasks.put(ImportTable.RECIPE_INGREDIENTS, partitioned(recipeRecords, (conn, slice) -> loadRecipeIngredients(conn, mode, slice)));
+        tasks.put(ImportTable.REVIEWS, partitioned(reviewRecords, (conn, slice) -> loadReviews(conn, mode, slice)));
+        tasks.put(ImportTable.REVIEW_LIKES, partitioned(reviewRecords, (conn, slice) -> loadReviewLikes(conn, mode, slice)));
+        tasks.put(ImportTable.USER_FOLLOWS, followTasks(mode, FollowEdges.of(userRecords)));
+
+        importPipeline.run(tasks);
+
+        completeImport(mode);
+    }
+
+    /**
+     * Picks the import mode and creates the tables for it.
+     */
+    ImportMode beginImport() {
+        Set<String> existing = existingTables();
+        // 表已存在（未先清库就再次导入）时，按批量插入加 ON CONFLICT 的方式跳过已有的行
+        boolean copy = existing.isEmpty() && copyEnabled && copySupported();
+        // the batched fallback relies on ON CONFLICT against the keys, so it always gets them up front
+        ImportMode mode = new ImportMode(copy, deferredConstraints && copy);
+
         // ddl to create tables.
-        createTables();
+        createTables(mode.deferred(), existing);
+        return mode;
+    }
+
+    /**
+     * @return the import tables that already exist, which then already have their keys
+     */
+    private Set<String> existingTables() {
+        Set<String> existing = new HashSet<>();
+        for (String[] table : TABLE_COLUMNS) {
+            if (Boolean.TRUE.equals(jdbcTemplate.queryForObject("SELECT to_regclass(?) IS NOT NULL", Boolean.class, table[0]))) {
+                existing.add(table[0]);
+            }
+        }
+        return existing;
+    }
+
+    /**
+     * Builds everything that is cheaper to build once the data is in place.
+     */
+    void completeImport(ImportMode mode) {
+        refreshFollowCounters();
+        if (mode.deferred()) {
+            buildDeferredConstraints();
+        }
+        indexManager.createIndexes();
+        materializedFeed.build();
+        accountCleanup.createQueue();
+        idAllocator.initialize();
+        analyzeTables();
+        eventPublisher.publishEvent(new DataImportedEvent());
+    }
+
+    void loadUsers(Connection conn, ImportMode mode, List<UserRecord> slice) throws SQLException {
+        if (mode.copy()) {
+            copyLoader.copyUsers(conn, slice);
+        } else {
+            batchInsertUsers(jdbc(conn), slice);
+        }
+    }
+
+    void loadRecipes(Connection conn, ImportMode mode, List<RecipeRecord> slice) throws SQLException {
+        if (mode.copy()) {
+            copyLoader.copyRecipes(conn, slice);
+        } else {
+            batchInsertRecipes(jdbc(conn), slice);
+        }
+    }
+
+    void loadRecipeIngredients(Connection conn, ImportMode mode, List<RecipeRecord> slice) throws SQLException {
+        if (mode.copy()) {
+            copyLoader.copyRecipeIngredients(conn, slice);
+        } else {
+            batchInsertRecipeIngredients(jdbc(conn), slice);
+        }
+    }
+
+    void loadReviews(Connection conn, ImportMode mode, List<ReviewRecord> slice) throws SQLException {
+        if (mode.copy()) {
+            copyLoader.copyReviews(conn, slice);
+        } else {
+            batchInsertReviews(jdbc(conn), slice);
+        }
+    }
+
+    void loadReviewLikes(Connection conn, ImportMode mode, List<ReviewRecord> slice) throws SQLException {
+        if (mode.copy()) {
+            copyLoader.copyReviewLikes(conn, slice);
+        } else {
+            batchInsertReviewLikes(jdbc(conn), slice);
+        }
+    }
+
+    /**
+     * One task per range of the already de-duplicated edges.
+     */
+    List<ImportPipeline.Task> followTasks(ImportMode mode, FollowEdges edges) {
+        List<ImportPipeline.Task> tasks = new ArrayList<>();
+        int partitions = importPipeline.partitionCount(edges.size());
+        for (int p = 0; p < partitions; p++) {
+            final int from = (int) ((long) edges.size() * p / partitions);
+            final int to = (int) ((long) edges.size() * (p + 1) / partitions);
+            tasks.add(mode.copy()
+                    ? conn -> copyLoader.copyUserFollows(conn, edges, from, to)
+                    : conn -> batchInsertUserFollows(jdbc(conn), edges, from, to));
+        }
+        return tasks;
+    }
 
-        batchInsertUsers(userRecords);
-        batchInsertRecipes(recipeRecords);
-        batchInsertRecipeIngredients(recipeRecords);
-        batchInsertReviews(reviewRecords);
-        batchInsertReviewLikes(reviewRecords);
-        batchInsertUserFollows(userRecords);
+    private <T> List<ImportPipeline.Task> partitioned(List<T> records, SliceLoader<T> loader) {
+        List<ImportPipeline.Task> tasks = new ArrayList<>();
+        for (List<T> slice : importPipeline.partition(records)) {
+            tasks.add(conn -> loader.load(conn, slice));
+        }
+        return tasks;
+    }
+
+    /**
+     * A {@link JdbcTemplate} bound to a single pipeline connection, so the batched fallback
+     * takes part in the partition's transaction.
+     */
+    private static JdbcTemplate jdbc(Connection conn) {
+        return new JdbcTemplate(new SingleConnectionDataSource(conn, true));
+    }
 
+    private boolean copySupported() {
+        try (Connection conn = dataSource.getConnection()) {
+            if (copyLoader.supports(conn)) {
+                return true;
+            }
+            log.warn("COPY is not supported by the current driver, falling back to batched inserts");
+            return false;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     private static final int BATCH_SIZE = 2000;
 
-    private void batchInsertUsers(List<UserRecord> userRecords) {
+    private void batchInsertUsers(JdbcTemplate jdbc, List<UserRecord> userRecords) {
         if (userRecords == null || userRecords.isEmpty()) {
             return;
         }
@@ -80,7 +283,7 @@ public class DatabaseServiceImpl implements DatabaseService {
 
         for (int start = 0; start < userRecords.size(); start += BATCH_SIZE) {
             final List<UserRecord> batch = userRecords.subList(start, Math.min(start + BATCH_SIZE, userRecords.size()));
-            jdbcTemplate.batchUpdate(sql, new BatchPreparedStatementSetter() {
+            jdbc.batchUpdate(sql, new BatchPreparedStatementSetter() {
                 @Override
                 public void setValues(PreparedStatement ps, int i) throws SQLException {
                     UserRecord u = batch.get(i);
@@ -102,7 +305,7 @@ public class DatabaseServiceImpl implements DatabaseService {
         }
     }
 
-    private void batchInsertRecipes(List<RecipeRecord> recipeRecords) {
+    private void batchInsertRecipes(JdbcTemplate jdbc, List<RecipeRecord> recipeRecords) {
         if (recipeRecords == null || recipeRecords.isEmpty()) {
             return;
         }
@@ -116,7 +319,7 @@ public class DatabaseServiceImpl implements DatabaseService {
 
         for (int start = 0; start < recipeRecords.size(); start += BATCH_SIZE) {
             final List<RecipeRecord> batch = recipeRecords.subList(start, Math.min(start + BATCH_SIZE, recipeRecords.size()));
-            jdbcTemplate.batchUpdate(sql, new BatchPreparedStatementSetter() {
+            jdbc.batchUpdate(sql, new BatchPreparedStatementSetter() {
                 @Override
                 public void setValues(PreparedStatement ps, int i) throws SQLException {
                     RecipeRecord r = batch.get(i);
@@ -152,7 +355,7 @@ public class DatabaseServiceImpl implements DatabaseService {
         }
     }
 
-    private void batchInsertRecipeIngredients(List<RecipeRecord> recipeRecords) {
+    private void batchInsertRecipeIngredients(JdbcTemplate jdbc, List<RecipeRecord> recipeRecords) {
         if (recipeRecords == null || recipeRecords.isEmpty()) {
             return;
         }
@@ -172,17 +375,17 @@ public class DatabaseServiceImpl implements DatabaseService {
                 }
                 batchArgs.add(new Object[]{r.getRecipeId(), part});
                 if (batchArgs.size() >= BATCH_SIZE) {
-                    jdbcTemplate.batchUpdate(sql, batchArgs);
+                    jdbc.batchUpdate(sql, batchArgs);
                     batchArgs.clear();
                 }
             }
         }
         if (!batchArgs.isEmpty()) {
-            jdbcTemplate.batchUpdate(sql, batchArgs);
+            jdbc.batchUpdate(sql, batchArgs);
         }
     }
 
-    private void batchInsertReviews(List<ReviewRecord> reviewRecords) {
+    private void batchInsertReviews(JdbcTemplate jdbc, List<ReviewRecord> reviewRecords) {
         if (reviewRecords == null || reviewRecords.isEmpty()) {
             return;
         }
@@ -194,7 +397,7 @@ public class DatabaseServiceImpl implements DatabaseService {
 
         for (int start = 0; start < reviewRecords.size(); start += BATCH_SIZE) {
             final List<ReviewRecord> batch = reviewRecords.subList(start, Math.min(start + BATCH_SIZE, reviewRecords.size()));
-            jdbcTemplate.batchUpdate(sql, new BatchPreparedStatementSetter() {
+            jdbc.batchUpdate(sql, new BatchPreparedStatementSetter() {
                 @Override
                 public void setValues(PreparedStatement ps, int i) throws SQLException {
                     ReviewRecord rr = batch.get(i);
@@ -215,7 +418,7 @@ public class DatabaseServiceImpl implements DatabaseService {
         }
     }
 
-    private void batchInsertReviewLikes(List<ReviewRecord> reviewRecords) {
+    private void batchInsertReviewLikes(JdbcTemplate jdbc, List<ReviewRecord> reviewRecords) {
         if (reviewRecords == null || reviewRecords.isEmpty()) {
             return;
         }
@@ -232,153 +435,221 @@ public class DatabaseServiceImpl implements DatabaseService {
             for (long likerId : likes) {
                 batchArgs.add(new Object[]{r.getReviewId(), likerId});
                 if (batchArgs.size() >= BATCH_SIZE) {
-                    jdbcTemplate.batchUpdate(sql, batchArgs);
+                    jdbc.batchUpdate(sql, batchArgs);
                     batchArgs.clear();
                 }
             }
         }
         if (!batchArgs.isEmpty()) {
-            jdbcTemplate.batchUpdate(sql, batchArgs);
+            jdbc.batchUpdate(sql, batchArgs);
         }
     }
 
-    private void batchInsertUserFollows(List<UserRecord> userRecords) {
-        if (userRecords == null || userRecords.isEmpty()) {
-            return;
-        }
-
+    private void batchInsertUserFollows(JdbcTemplate jdbc, FollowEdges edges, int from, int to) {
         final String sql = "INSERT INTO user_follows (FollowerId, FollowingId) VALUES (?, ?) " +
                 "ON CONFLICT (FollowerId, FollowingId) DO NOTHING";
 
-        List<Object[]> batchArgs = new ArrayList<>(BATCH_SIZE);
-        for (UserRecord u : userRecords) {
-            // Following relations: u -> followee
-            long[] following = u.getFollowingUsers();
-            if (following == null || following.length == 0) {
-                // fall through
-            } else {
-                for (long followeeId : following) {
-                    if (followeeId == u.getAuthorId()) {
-                        continue;
-                    }
-                    batchArgs.add(new Object[]{u.getAuthorId(), followeeId});
-                    if (batchArgs.size() >= BATCH_SIZE) {
-                        jdbcTemplate.batchUpdate(sql, batchArgs);
-                        batchArgs.clear();
-                    }
+        for (int start = from; start < to; start += BATCH_SIZE) {
+            final int batchStart = start;
+            final int batchSize = Math.min(BATCH_SIZE, to - start);
+            jdbc.batchUpdate(sql, new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    ps.setLong(1, edges.followerAt(batchStart + i));
+                    ps.setLong(2, edges.followingAt(batchStart + i));
                 }
-            }
 
-            // Follower relations: follower -> u
-            long[] followers = u.getFollowerUsers();
-            if (followers == null || followers.length == 0) {
-                continue;
-            }
-            for (long followerId : followers) {
-                if (followerId == u.getAuthorId()) {
-                    continue;
-                }
-                batchArgs.add(new Object[]{followerId, u.getAuthorId()});
-                if (batchArgs.size() >= BATCH_SIZE) {
-                    jdbcTemplate.batchUpdate(sql, batchArgs);
-                    batchArgs.clear();
+                @Override
+                public int getBatchSize() {
+                    return batchSize;
                 }
-            }
+            });
         }
-        if (!batchArgs.isEmpty()) {
-            jdbcTemplate.batchUpdate(sql, batchArgs);
+    }
+
+
+    /**
+     * Column definitions only. Keys and checks live in {@link #TABLE_CONSTRAINTS},
+     * foreign keys in {@link #FOREIGN_KEYS}, so that they can be added either before
+     * or after the data is loaded.
+     */
+    private static final String[][] TABLE_COLUMNS = {
+            // 创建users表
+            {"users",
+                    "    AuthorId BIGINT NOT NULL, " +
+                    "    AuthorName VARCHAR(255) NOT NULL, " +
+                    "    Gender VARCHAR(10), " +
+                    "    Age INTEGER, " +
+                    "    Followers INTEGER DEFAULT 0, " +
+                    "    Following INTEGER DEFAULT 0, " +
+                    "    Password VARCHAR(255), " +
+                    "    IsDeleted BOOLEAN DEFAULT FALSE"},
+
+            // 创建recipes表
+            {"recipes",
+                    "    RecipeId BIGINT NOT NULL, " +
+                    "    Name VARCHAR(500) NOT NULL, " +
+                    "    AuthorId BIGINT NOT NULL, " +
+                    "    CookTime VARCHAR(50), " +
+                    "    PrepTime VARCHAR(50), " +
+                    "    TotalTime VARCHAR(50), " +
+                    "    DatePublished TIMESTAMP, " +
+                    "    Description TEXT, " +
+                    "    RecipeCategory VARCHAR(255), " +
+                    "    AggregatedRating DECIMAL(3,2), " +
+                    "    ReviewCount INTEGER DEFAULT 0, " +
+                    "    Calories DECIMAL(10,2), " +
+                    "    FatContent DECIMAL(10,2), " +
+                    "    SaturatedFatContent DECIMAL(10,2), " +
+                    "    CholesterolContent DECIMAL(10,2), " +
+                    "    SodiumContent DECIMAL(10,2), " +
+                    "    CarbohydrateContent DECIMAL(10,2), " +
+                    "    FiberContent DECIMAL(10,2), " +
+                    "    SugarContent DECIMAL(10,2), " +
+                    "    ProteinContent DECIMAL(10,2), " +
+                    "    RecipeServings INTEGER, " +
+                    "    RecipeYield VARCHAR(100)"},
+
+            // 创建reviews表
+            {"reviews",
+                    "    ReviewId BIGINT NOT NULL, " +
+                    "    RecipeId BIGINT NOT NULL, " +
+                    "    AuthorId BIGINT NOT NULL, " +
+                    "    Rating DECIMAL(3,2), " +
+                    "    Review TEXT, " +
+                    "    DateSubmitted TIMESTAMP, " +
+                    "    DateModified TIMESTAMP"},
+
+            // 创建recipe_ingredients表
+            {"recipe_ingredients",
+                    "    RecipeId BIGINT NOT NULL, " +
+                    "    IngredientPart VARCHAR(500) NOT NULL"},
+
+            // 创建review_likes表
+            {"review_likes",
+                    "    ReviewId BIGINT NOT NULL, " +
+                    "    AuthorId BIGINT NOT NULL"},
+
+            // 创建user_follows表
+            {"user_follows",
+                    "    FollowerId BIGINT NOT NULL, " +
+                    "    FollowingId BIGINT NOT NULL"}
+    };
+
+    /**
+     * Primary keys and checks, one statement per table so each table is scanned once.
+     * Each entry is the table and the statement.
+     */
+    private static final String[][] TABLE_CONSTRAINTS = {
+            {"users", "ALTER TABLE users " +
+                    "ADD PRIMARY KEY (AuthorId), " +
+                    "ADD CHECK (Gender IN ('Male', 'Female')), " +
+                    "ADD CHECK (Age > 0), " +
+                    "ADD CHECK (Followers >= 0), " +
+                    "ADD CHECK (Following >= 0)"},
+            {"recipes", "ALTER TABLE recipes " +
+                    "ADD PRIMARY KEY (RecipeId), " +
+                    "ADD CHECK (AggregatedRating >= 0 AND AggregatedRating <= 5), " +
+                    "ADD CHECK (ReviewCount >= 0)"},
+            {"reviews", "ALTER TABLE reviews ADD PRIMARY KEY (ReviewId)"},
+            {"recipe_ingredients", "ALTER TABLE recipe_ingredients ADD PRIMARY KEY (RecipeId, IngredientPart)"},
+            {"review_likes", "ALTER TABLE review_likes ADD PRIMARY KEY (ReviewId, AuthorId)"},
+            {"user_follows", "ALTER TABLE user_follows " +
+                    "ADD PRIMARY KEY (FollowerId, FollowingId), " +
+                    "ADD CHECK (FollowerId != FollowingId)"}
+    };
+
+    private static final String[][] FOREIGN_KEYS = {
+            {"recipes", "ALTER TABLE recipes ADD FOREIGN KEY (AuthorId) REFERENCES users(AuthorId)"},
+            {"reviews", "ALTER TABLE reviews " +
+                    "ADD FOREIGN KEY (RecipeId) REFERENCES recipes(RecipeId), " +
+                    "ADD FOREIGN KEY (AuthorId) REFERENCES users(AuthorId)"},
+            {"recipe_ingredients", "ALTER TABLE recipe_ingredients ADD FOREIGN KEY (RecipeId) REFERENCES recipes(RecipeId)"},
+            {"review_likes", "ALTER TABLE review_likes " +
+                    "ADD FOREIGN KEY (ReviewId) REFERENCES reviews(ReviewId), " +
+                    "ADD FOREIGN KEY (AuthorId) REFERENCES users(AuthorId)"},
+            {"user_follows", "ALTER TABLE user_follows " +
+                    "ADD FOREIGN KEY (FollowerId) REFERENCES users(AuthorId), " +
+                    "ADD FOREIGN KEY (FollowingId) REFERENCES users(AuthorId)"}
+    };
+
+    /**
+     * Creates the missing tables. Only tables created here get their keys, since existing ones were
+     * created with them by an earlier import. In deferred mode, which is only used when no table existed,
+     * they are created bare (and optionally unlogged) and {@link #buildDeferredConstraints} has to be
+     * called once they are loaded.
+     */
+    private void createTables(boolean deferred, Set<String> existing) {
+        for (String[] table : TABLE_COLUMNS) {
+            String kind = deferred && unloggedImport ? "UNLOGGED TABLE" : "TABLE";
+            jdbcTemplate.execute("CREATE " + kind + " IF NOT EXISTS " + table[0] + " (" + table[1] + ")");
+        }
+        if (!deferred) {
+            for (String sql : statementsFor(TABLE_CONSTRAINTS, existing)) {
+                jdbcTemplate.execute(sql);
+            }
+            for (String sql : statementsFor(FOREIGN_KEYS, existing)) {
+                jdbcTemplate.execute(sql);
+            }
         }
     }
 
+    private static List<String> statementsFor(String[][] statements, Set<String> skippedTables) {
+        return Arrays.stream(statements)
+                .filter(statement -> !skippedTables.contains(statement[0]))
+                .map(statement -> statement[1])
+                .toList();
+    }
 
-    private void createTables() {
-        String[] createTableSQLs = {
-                // 创建users表
-                "CREATE TABLE IF NOT EXISTS users (" +
-                        "    AuthorId BIGINT PRIMARY KEY, " +
-                        "    AuthorName VARCHAR(255) NOT NULL, " +
-                        "    Gender VARCHAR(10) CHECK (Gender IN ('Male', 'Female')), " +
-                        "    Age INTEGER CHECK (Age > 0), " +
-                        "    Followers INTEGER DEFAULT 0 CHECK (Followers >= 0), " +
-                        "    Following INTEGER DEFAULT 0 CHECK (Following >= 0), " +
-                        "    Password VARCHAR(255), " +
-                        "    IsDeleted BOOLEAN DEFAULT FALSE" +
-                        ")",
-
-                // 创建recipes表
-                "CREATE TABLE IF NOT EXISTS recipes (" +
-                        "    RecipeId BIGINT PRIMARY KEY, " +
-                        "    Name VARCHAR(500) NOT NULL, " +
-                        "    AuthorId BIGINT NOT NULL, " +
-                        "    CookTime VARCHAR(50), " +
-                        "    PrepTime VARCHAR(50), " +
-                        "    TotalTime VARCHAR(50), " +
-                        "    DatePublished TIMESTAMP, " +
-                        "    Description TEXT, " +
-                        "    RecipeCategory VARCHAR(255), " +
-                        "    AggregatedRating DECIMAL(3,2) CHECK (AggregatedRating >= 0 AND AggregatedRating <= 5), " +
-                        "    ReviewCount INTEGER DEFAULT 0 CHECK (ReviewCount >= 0), " +
-                        "    Calories DECIMAL(10,2), " +
-                        "    FatContent DECIMAL(10,2), " +
-                        "    SaturatedFatContent DECIMAL(10,2), " +
-                        "    CholesterolContent DECIMAL(10,2), " +
-                        "    SodiumContent DECIMAL(10,2), " +
-                        "    CarbohydrateContent DECIMAL(10,2), " +
-                        "    FiberContent DECIMAL(10,2), " +
-                        "    SugarContent DECIMAL(10,2), " +
-                        "    ProteinContent DECIMAL(10,2), " +
-                        "    RecipeServings INTEGER, " +
-                        "    RecipeYield VARCHAR(100), " +
-                        "    FOREIGN KEY (AuthorId) REFERENCES users(AuthorId)" +
-                        ")",
-
-                // 创建reviews表
-                "CREATE TABLE IF NOT EXISTS reviews (" +
-                        "    ReviewId BIGINT PRIMARY KEY, " +
-                        "    RecipeId BIGINT NOT NULL, " +
-                        "    AuthorId BIGINT NOT NULL, " +
-                        "    Rating DECIMAL(3,2), " +
-                        "    Review TEXT, " +
-                        "    DateSubmitted TIMESTAMP, " +
-                        "    DateModified TIMESTAMP, " +
-                        "    FOREIGN KEY (RecipeId) REFERENCES recipes(RecipeId), " +
-                        "    FOREIGN KEY (AuthorId) REFERENCES users(AuthorId)" +
-                        ")",
-
-                // 创建recipe_ingredients表
-                "CREATE TABLE IF NOT EXISTS recipe_ingredients (" +
-                        "    RecipeId BIGINT, " +
-                        "    IngredientPart VARCHAR(500), " +
-                        "    PRIMARY KEY (RecipeId, IngredientPart), " +
-                        "    FOREIGN KEY (RecipeId) REFERENCES recipes(RecipeId)" +
-                        ")",
-
-                // 创建review_likes表
-                "CREATE TABLE IF NOT EXISTS review_likes (" +
-                        "    ReviewId BIGINT, " +
-                        "    AuthorId BIGINT, " +
-                        "    PRIMARY KEY (ReviewId, AuthorId), " +
-                        "    FOREIGN KEY (ReviewId) REFERENCES reviews(ReviewId), " +
-                        "    FOREIGN KEY (AuthorId) REFERENCES users(AuthorId)" +
-                        ")",
-
-                // 创建user_follows表
-                "CREATE TABLE IF NOT EXISTS user_follows (" +
-                        "    FollowerId BIGINT, " +
-                        "    FollowingId BIGINT, " +
-                        "    PRIMARY KEY (FollowerId, FollowingId), " +
-                        "    FOREIGN KEY (FollowerId) REFERENCES users(AuthorId), " +
-                        "    FOREIGN KEY (FollowingId) REFERENCES users(AuthorId), " +
-                        "    CHECK (FollowerId != FollowingId)" +
-                        ")"
-        };
-
-        for (String sql : createTableSQLs) {
+    /**
+     * Turns the loaded bare tables into the final schema. The primary keys and checks of different tables
+     * run in parallel, since each statement only locks its own table. Adding a foreign key also takes a
+     * SHARE ROW EXCLUSIVE lock on the referenced table, and four of them reference {@code users}, so they
+     * would only wait for each other; they run one after another.
+     */
+    private void buildDeferredConstraints() {
+        if (unloggedImport) {
+            // no foreign keys exist yet, so the tables can be switched in any order
+            importPipeline.executeParallel("set logged", Arrays.stream(TABLE_COLUMNS)
+                    .map(table -> "ALTER TABLE " + table[0] + " SET LOGGED")
+                    .toList());
+        }
+        importPipeline.executeParallel("primary keys", statementsFor(TABLE_CONSTRAINTS, Set.of()));
+        long start = System.currentTimeMillis();
+        for (String sql : statementsFor(FOREIGN_KEYS, Set.of())) {
             jdbcTemplate.execute(sql);
         }
+        log.debug("Import phase 'foreign keys' took {} ms", System.currentTimeMillis() - start);
     }
 
+    /**
+     * Recomputes {@code users.Followers} and {@code users.Following} from the imported {@code user_follows}.
+     * From then on the services keep them in step with every follow, unfollow and account deletion.
+     */
+    private void refreshFollowCounters() {
+        long start = System.currentTimeMillis();
+        int updated = jdbcTemplate.update("""
+                UPDATE users u
+                SET Followers = c.followers, Following = c.following
+                FROM (
+                    SELECT x.AuthorId, COALESCE(fr.cnt, 0) AS followers, COALESCE(fg.cnt, 0) AS following
+                    FROM users x
+                    LEFT JOIN (SELECT FollowingId AS id, COUNT(*) AS cnt FROM user_follows GROUP BY FollowingId) fr
+                        ON fr.id = x.AuthorId
+                    LEFT JOIN (SELECT FollowerId AS id, COUNT(*) AS cnt FROM user_follows GROUP BY FollowerId) fg
+                        ON fg.id = x.AuthorId
+                ) c
+                WHERE u.AuthorId = c.AuthorId
+                  AND (u.Followers IS DISTINCT FROM c.followers OR u.Following IS DISTINCT FROM c.following)
+                """);
+        log.debug("Corrected follow counters of {} users in {} ms", updated, System.currentTimeMillis() - start);
+    }
 
+    private void analyzeTables() {
+        importPipeline.executeParallel("analyze", Arrays.stream(TABLE_COLUMNS)
+                .map(table -> "ANALYZE " + table[0])
+                .toList());
+    }
 
     /*
      * The following code is just a quick example of using jdbc datasource.
@@ -0,0 +1,92 @@
+package io.sustc.service.impl;
+
+import io.sustc.dto.UserRecord;
+
+import java.util.List;
+
+/**
+ * The distinct follow edges of an import, as two parallel primitive arrays.
+ * <p>
+ * Each edge is listed twice in the user records, once in the follower's {@code followingUsers} and
+ * once in the followee's {@code followerUsers}. Both directions are collapsed through a
+ * {@link LongPairHashSet} and self-loops are dropped, so every edge is sent to the database exactly once.
+ */
+public final class FollowEdges {
+
+    private final long[] followerIds;
+    private final long[] followingIds;
+
+    private FollowEdges(long[] followerIds, long[] followingIds) {
+        this.followerIds = followerIds;
+        this.followingIds = followingIds;
+    }
+
+    public static FollowEdges of(List<UserRecord> userRecords) {
+        if (userRecords == null || userRecords.isEmpty()) {
+            return new Builder(0).build();
+        }
+
+        long listed = 0;
+        for (UserRecord u : userRecords) {
+            listed += u.getFollowingUsers() == null ? 0 : u.getFollowingUsers().length;
+            listed += u.getFollowerUsers() == null ? 0 : u.getFollowerUsers().length;
+        }
+        // most edges are listed from both ends
+        Builder builder = new Builder((int) Math.min(Integer.MAX_VALUE / 4, listed / 2 + 1));
+        for (UserRecord u : userRecords) {
+            builder.add(u);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Collects the edges of user records that arrive incrementally.
+     */
+    public static final class Builder {
+
+        private final LongPairHashSet edges;
+
+        public Builder(int expectedEdges) {
+            this.edges = new LongPairHashSet(expectedEdges);
+        }
+
+        public void add(UserRecord u) {
+            long authorId = u.getAuthorId();
+            long[] following = u.getFollowingUsers();
+            if (following != null) {
+                for (long followeeId : following) {
+                    if (followeeId != authorId) {
+                        edges.add(authorId, followeeId);
+                    }
+                }
+            }
+            long[] followers = u.getFollowerUsers();
+            if (followers != null) {
+                for (long followerId : followers) {
+                    if (followerId != authorId) {
+                        edges.add(followerId, authorId);
+                    }
+                }
+            }
+        }
+
+        public FollowEdges build() {
+            long[] followerIds = new long[edges.size()];
+            long[] followingIds = new long[edges.size()];
+            edges.copyTo(followerIds, followingIds);
+            return new FollowEdges(followerIds, followingIds);
+        }
+    }
+
+    public int size() {
+        return followerIds.length;
+    }
+
+    public long followerAt(int i) {
+        return followerIds[i];
+    }
+
+    public long followingAt(int i) {
+        return followingIds[i];
+    }
+}
@@ -0,0 +1,280 @@
+package io.sustc.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * In-memory copy of {@code user_follows}, so follower and following lists need no query.
+ * <p>
+ * Both directions are stored in compressed sparse row form: the users with at least one edge in sorted
+ * {@code long[] keys}, {@code int[] offsets} into a {@code long[] targets} array, and every user's targets
+ * sorted. The arrays are built from the table after every import, or on first use if this process did not
+ * run the import, and are never modified afterwards.
+ * <p>
+ * {@code follow} and {@code deleteAccount} record their changes in an overlay that maps a user to its new,
+ * complete and sorted adjacency, which then takes precedence over the row in the CSR arrays. Once the
+ * overlay grows past {@code sustc.follow-graph.compact-after} users, it is merged into fresh CSR arrays.
+ */
+@Component
+@Slf4j
+public class FollowGraph {
+
+    private static final long[] EMPTY = new long[0];
+
+    /**
+     * Leaves out the edges of users still queued in {@code account_cleanup}, like the SQL readers do.
+     */
+    private static final String LIVE_EDGES =
+            " WHERE NOT EXISTS (SELECT 1 FROM account_cleanup c WHERE c.AuthorId IN (f.FollowerId, f.FollowingId))";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${sustc.follow-graph.compact-after:4096}")
+    private int compactAfter;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Csr following;
+    private Csr followers;
+    private final Map<Long, long[]> followingOverlay = new HashMap<>();
+    private final Map<Long, long[]> followersOverlay = new HashMap<>();
+
+    /**
+     * Edges of one direction in compressed sparse row form.
+     */
+    private record Csr(long[] keys, int[] offsets, long[] targets) {
+
+        long[] get(long key) {
+            int i = Arrays.binarySearch(keys, key);
+            return i < 0 ? EMPTY : Arrays.copyOfRange(targets, offsets[i], offsets[i + 1]);
+        }
+    }
+
+    /**
+     * Accumulates the edges of one direction, which must arrive sorted by key and then target.
+     */
+    private static final class CsrBuilder {
+
+        private long[] keys = new long[1024];
+        private int[] offsets = new int[1025];
+        private long[] targets = new long[4096];
+        private int keyCount;
+        private int edgeCount;
+
+        void add(long key, long target) {
+            if (keyCount == 0 || keys[keyCount - 1] != key) {
+                if (keyCount + 1 == keys.length) {
+                    keys = Arrays.copyOf(keys, keys.length * 2);
+                    offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                }
+                keys[keyCount] = key;
+                offsets[keyCount] = edgeCount;
+                keyCount++;
+            }
+            if (edgeCount == targets.length) {
+                targets = Arrays.copyOf(targets, targets.length * 2);
+            }
+            targets[edgeCount++] = target;
+        }
+
+        void addAll(long key, long[] sortedTargets) {
+            for (long target : sortedTargets) {
+                add(key, target);
+            }
+        }
+
+        Csr build() {
+            offsets[keyCount] = edgeCount;
+            return new Csr(Arrays.copyOf(keys, keyCount), Arrays.copyOf(offsets, keyCount + 1), Arrays.copyOf(targets, edgeCount));
+        }
+    }
+
+    /**
+     * @return the sorted ids of the users that follow the user
+     */
+    public long[] followersOf(long authorId) {
+        return read(() -> get(followers, followersOverlay, authorId));
+    }
+
+    /**
+     * @return the sorted ids of the users the user follows
+     */
+    public long[] followingOf(long authorId) {
+        return read(() -> get(following, followingOverlay, authorId));
+    }
+
+    /**
+     * Records a new edge once the current transaction (if any) commits.
+     */
+    public void addEdge(long followerId, long followeeId) {
+        TransactionHooks.afterCommit(() -> write(() -> {
+            followingOverlay.put(followerId, with(get(following, followingOverlay, followerId), followeeId));
+            followersOverlay.put(followeeId, with(get(followers, followersOverlay, followeeId), followerId));
+        }));
+    }
+
+    /**
+     * Records a removed edge once the current transaction (if any) commits.
+     */
+    public void removeEdge(long followerId, long followeeId) {
+        TransactionHooks.afterCommit(() -> write(() -> {
+            followingOverlay.put(followerId, without(get(following, followingOverlay, followerId), followeeId));
+            followersOverlay.put(followeeId, without(get(followers, followersOverlay, followeeId), followerId));
+        }));
+    }
+
+    /**
+     * Removes every edge of the user once the current transaction (if any) commits.
+     */
+    public void removeUser(long authorId) {
+        TransactionHooks.afterCommit(() -> write(() -> {
+            for (long followeeId : get(following, followingOverlay, authorId)) {
+                followersOverlay.put(followeeId, without(get(followers, followersOverlay, followeeId), authorId));
+            }
+            for (long followerId : get(followers, followersOverlay, authorId)) {
+                followingOverlay.put(followerId, without(get(following, followingOverlay, followerId), authorId));
+            }
+            followingOverlay.put(authorId, EMPTY);
+            followersOverlay.put(authorId, EMPTY);
+        }));
+    }
+
+    @EventListener
+    public void onDataImported(DataImportedEvent event) {
+        lock.writeLock().lock();
+        try {
+            load();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rebuilds both directions from the table; the caller holds the write lock.
+     */
+    private void load() {
+        long start = System.currentTimeMillis();
+        CsrBuilder out = new CsrBuilder();
+        jdbcTemplate.query("SELECT FollowerId, FollowingId FROM user_follows f" + LIVE_EDGES + " ORDER BY FollowerId, FollowingId",
+                rs -> {
+                    out.add(rs.getLong(1), rs.getLong(2));
+                });
+        CsrBuilder in = new CsrBuilder();
+        jdbcTemplate.query("SELECT FollowingId, FollowerId FROM user_follows f" + LIVE_EDGES + " ORDER BY FollowingId, FollowerId",
+                rs -> {
+                    in.add(rs.getLong(1), rs.getLong(2));
+                });
+        following = out.build();
+        followers = in.build();
+        followingOverlay.clear();
+        followersOverlay.clear();
+        log.debug("Loaded follow graph with {} edges in {} ms", following.targets().length, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Merges the overlay of one direction into new CSR arrays.
+     */
+    private static Csr compact(Csr base, Map<Long, long[]> overlay) {
+        long[] overlayKeys = overlay.keySet().stream().mapToLong(Long::longValue).sorted().toArray();
+        CsrBuilder builder = new CsrBuilder();
+        int i = 0;
+        int j = 0;
+        while (i < base.keys().length || j < overlayKeys.length) {
+            if (j == overlayKeys.length || (i < base.keys().length && base.keys()[i] < overlayKeys[j])) {
+                builder.addAll(base.keys()[i], Arrays.copyOfRange(base.targets(), base.offsets()[i], base.offsets()[i + 1]));
+                i++;
+            } else {
+                if (i < base.keys().length && base.keys()[i] == overlayKeys[j]) {
+                    i++;
+                }
+                builder.addAll(overlayKeys[j], overlay.get(overlayKeys[j]));
+                j++;
+            }
+        }
+        overlay.clear();
+        return builder.build();
+    }
+
+    private static long[] get(Csr base, Map<Long, long[]> overlay, long key) {
+        long[] targets = overlay.get(key);
+        return targets != null ? targets.clone() : base.get(key);
+    }
+
+    private static long[] with(long[] sorted, long value) {
+        int i = Arrays.binarySearch(sorted, value);
+        if (i >= 0) {
+            return sorted;
+        }
+        int at = -i - 1;
+        long[] result = new long[sorted.length + 1];
+        System.arraycopy(sorted, 0, result, 0, at);
+        result[at] = value;
+        System.arraycopy(sorted, at, result, at + 1, sorted.length - at);
+        return result;
+    }
+
+    private static long[] without(long[] sorted, long value) {
+        int at = Arrays.binarySearch(sorted, value);
+        if (at < 0) {
+            return sorted;
+        }
+        long[] result = new long[sorted.length - 1];
+        System.arraycopy(sorted, 0, result, 0, at);
+        System.arraycopy(sorted, at + 1, result, at, sorted.length - at - 1);
+        return result;
+    }
+
+    private <T> T read(Supplier<T> action) {
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            return action.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void write(Runnable action) {
+        ensureLoaded();
+        lock.writeLock().lock();
+        try {
+            action.run();
+            if (followingOverlay.size() + followersOverlay.size() > compactAfter) {
+                following = compact(following, followingOverlay);
+                followers = compact(followers, followersOverlay);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void ensureLoaded() {
+        lock.readLock().lock();
+        try {
+            if (following != null) {
+                return;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        lock.writeLock().lock();
+        try {
+            if (following == null) {
+                load();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package io.sustc.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Hands out new user and review ids from Postgres sequences.
+ * <p>
+ * Every {@code nextval} reserves a block of {@code sustc.id.block-size} ids (the sequences are created with
+ * that increment), which are then handed out from memory, so most calls do not touch the database at all.
+ * Within one process the ids mostly stay consecutive; the unused rest of a block is lost when the process exits.
+ * <p>
+ * No lock is held while a connection is used, since the caller may already hold one from the pool and wait
+ * for the lock. {@code nextval} runs on the caller's connection (it is not undone by a rollback); a block
+ * fetched while another thread refilled first is kept as the next block.
+ * <p>
+ * The sequences are {@code OWNED BY} their id columns and therefore dropped together with the tables.
+ * They are positioned after the imported maximum by {@link #initialize()} at the end of the import, or
+ * on first use if this process did not run the import. Positioning never moves a sequence backwards, so
+ * two threads preparing at once cannot hand out an id twice.
+ */
+@Component
+@Slf4j
+public class IdAllocator {
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${sustc.id.block-size:64}")
+    private int blockSize;
+
+    private final Block users = new Block("users", "AuthorId", "users_authorid_seq");
+    private final Block reviews = new Block("reviews", "ReviewId", "reviews_reviewid_seq");
+
+    public long nextUserId() {
+        return users.take();
+    }
+
+    public long nextReviewId() {
+        return reviews.take();
+    }
+
+    /**
+     * Takes back a user id that ended up unused, if no other id was handed out since, so the ids stay dense.
+     */
+    public void releaseUserId(long id) {
+        users.release(id);
+    }
+
+    /**
+     * Creates the sequences and positions them after the largest imported id. Runs after the tables are loaded.
+     */
+    public void initialize() {
+        users.prepare();
+        reviews.prepare();
+    }
+
+    private final class Block {
+
+        private final String table;
+        private final String column;
+        private final String sequence;
+
+        private boolean prepared;
+        /**
+         * Bumped by {@link #prepare()}; blocks fetched before that are discarded.
+         */
+        private int epoch;
+        private long next;
+        private long end;
+        /**
+         * Start of a block fetched while the current one was refilled by another thread, or 0.
+         */
+        private long spare;
+
+        Block(String table, String column, String sequence) {
+            this.table = table;
+            this.column = column;
+            this.sequence = sequence;
+        }
+
+        long take() {
+            while (true) {
+                int seen;
+                synchronized (this) {
+                    if (prepared) {
+                        if (next >= end && spare > 0) {
+                            next = spare;
+                            end = spare + step();
+                            spare = 0;
+                        }
+                        if (next < end) {
+                            return next++;
+                        }
+                    }
+                    seen = prepared ? epoch : -1;
+                }
+                if (seen < 0) {
+                    prepare();
+                    continue;
+                }
+                // 在锁外取号段
+                Long start = jdbcTemplate.queryForObject("SELECT nextval('" + sequence + "')", Long.class);
+                synchronized (this) {
+                    if (epoch != seen || start == null) {
+                        continue;
+                    }
+                    if (next >= end) {
+                        next = start;
+                        end = start + step();
+                    } else if (spare == 0) {
+                        spare = start;
+                    }
+                }
+            }
+        }
+
+        synchronized void release(long id) {
+            if (prepared && id == next - 1) {
+                next--;
+            }
+        }
+
+        void prepare() {
+            int step = step();
+            // 在独立的连接上执行，不受调用方事务回滚的影响
+            execute("CREATE SEQUENCE IF NOT EXISTS " + sequence + " INCREMENT BY " + step + " OWNED BY " + table + "." + column);
+            execute("ALTER SEQUENCE " + sequence + " INCREMENT BY " + step);
+            long start = query("SELECT setval('" + sequence + "', GREATEST(COALESCE((SELECT MAX(" + column + ") FROM " + table
+                    + "), 0) + 1, nextval('" + sequence + "')), false)");
+            synchronized (this) {
+                epoch++;
+                next = 0;
+                end = 0;
+                spare = 0;
+                prepared = true;
+            }
+            log.debug("Sequence {} starts at {}, blocks of {}", sequence, start, step);
+        }
+
+        private int step() {
+            return Math.max(1, blockSize);
+        }
+
+        private void execute(String sql) {
+            try (Connection conn = dataSource.getConnection();
+                 Statement stmt = conn.createStatement()) {
+                stmt.execute(sql);
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private long query(String sql) {
+            try (Connection conn = dataSource.getConnection();
+                 Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery(sql)) {
+                rs.next();
+                return rs.getLong(1);
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
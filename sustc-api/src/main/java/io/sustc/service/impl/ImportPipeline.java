@@ -0,0 +1,194 @@
+package io.sustc.service.impl;
+
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the import as a dependency-ordered pipeline over several pooled connections.
+ * <p>
+ * A table starts loading as soon as every table it references (see {@link ImportTable#getDependencies()})
+ * has been committed. Each table is split into partitions, and every partition is loaded in its own
+ * transaction on its own connection, so independent tables and the partitions of one table run in parallel.
+ */
+@Component
+@Slf4j
+public class ImportPipeline {
+
+    /**
+     * Loads one partition of a table on the given connection. The pipeline commits afterwards.
+     */
+    @FunctionalInterface
+    public interface Task {
+        void load(Connection conn) throws SQLException;
+    }
+
+    @Autowired
+    private DataSource dataSource;
+
+    /**
+     * Number of connections used concurrently, {@code 0} picks min(cores, pool size).
+     */
+    @Value("${sustc.import.parallelism:0}")
+    private int parallelism;
+
+    /**
+     * Tables smaller than this are loaded as a single partition.
+     */
+    @Value("${sustc.import.partition-rows:20000}")
+    private int partitionRows;
+
+    public int getParallelism() {
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        if (dataSource instanceof HikariDataSource hikari) {
+            threads = Math.min(threads, hikari.getMaximumPoolSize());
+        }
+        return Math.max(1, threads);
+    }
+
+    /**
+     * Number of partitions a table of {@code rows} rows is split into.
+     */
+    public int partitionCount(int rows) {
+        int byRows = (rows + partitionRows - 1) / Math.max(1, partitionRows);
+        return Math.max(1, Math.min(getParallelism(), byRows));
+    }
+
+    /**
+     * Splits the records into contiguous ranges, one per partition.
+     */
+    public <T> List<List<T>> partition(List<T> records) {
+        if (records == null || records.isEmpty()) {
+            return Collections.emptyList();
+        }
+        int parts = partitionCount(records.size());
+        List<List<T>> slices = new ArrayList<>(parts);
+        for (int p = 0; p < parts; p++) {
+            int from = (int) ((long) records.size() * p / parts);
+            int to = (int) ((long) records.size() * (p + 1) / parts);
+            slices.add(records.subList(from, to));
+        }
+        return slices;
+    }
+
+    /**
+     * Runs all the tasks, respecting the table dependencies, and blocks until every table is loaded.
+     *
+     * @throws RuntimeException wrapping the first failure; partitions already committed stay in the database
+     */
+    public void run(Map<ImportTable, List<Task>> tasks) {
+        ExecutorService pool = newPool();
+
+        Map<ImportTable, CompletableFuture<Void>> loaded = new EnumMap<>(ImportTable.class);
+        try {
+            for (ImportTable table : ImportTable.values()) {
+                CompletableFuture<?>[] deps = table.getDependencies().stream()
+                        .map(loaded::get)
+                        .toArray(CompletableFuture[]::new);
+                List<Task> partitions = tasks.getOrDefault(table, Collections.emptyList());
+                loaded.put(table, CompletableFuture.allOf(deps).thenCompose(v -> {
+                    long start = System.currentTimeMillis();
+                    return CompletableFuture.allOf(partitions.stream()
+                                    .map(task -> CompletableFuture.runAsync(() -> inTransaction(task), pool))
+                                    .toArray(CompletableFuture[]::new))
+                            .thenRun(() -> log.debug("Loaded {} in {} partitions, {} ms",
+                                    table, partitions.size(), System.currentTimeMillis() - start));
+                }));
+            }
+            await(loaded.values());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Executes independent statements in autocommit mode, each on its own connection,
+     * and blocks until all of them are done.
+     */
+    public void executeParallel(String phase, List<String> statements) {
+        ExecutorService pool = newPool();
+        long start = System.currentTimeMillis();
+        try {
+            await(statements.stream()
+                    .map(sql -> CompletableFuture.runAsync(() -> execute(sql), pool))
+                    .toList());
+        } finally {
+            pool.shutdownNow();
+        }
+        log.debug("Import phase '{}' took {} ms", phase, System.currentTimeMillis() - start);
+    }
+
+    private ExecutorService newPool() {
+        int threads = getParallelism();
+        AtomicInteger threadCount = new AtomicInteger();
+        log.debug("Import pipeline with {} connections", threads);
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "import-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private static void await(Collection<CompletableFuture<Void>> futures) {
+        try {
+            CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private void execute(String sql) {
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Runs the task in its own transaction on a pooled connection and commits it.
+     */
+    public void inTransaction(Task task) {
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                try (Statement stmt = conn.createStatement()) {
+                    // the import is re-run from scratch on failure, so there is no need to wait for the WAL flush
+                    stmt.execute("SET LOCAL synchronous_commit = off");
+                }
+                task.load(conn);
+                conn.commit();
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package io.sustc.service.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tables filled by {@link DatabaseServiceImpl#importData}, together with the tables their foreign keys point to.
+ * <p>
+ * The constants are declared in a topological order of that dependency graph,
+ * so every table comes after all the tables it references.
+ */
+public enum ImportTable {
+
+    USERS,
+    RECIPES(USERS),
+    RECIPE_INGREDIENTS(RECIPES),
+    REVIEWS(RECIPES, USERS),
+    REVIEW_LIKES(REVIEWS, USERS),
+    USER_FOLLOWS(USERS);
+
+    private final List<ImportTable> dependencies;
+
+    ImportTable(ImportTable... dependencies) {
+        this.dependencies = Collections.unmodifiableList(Arrays.asList(dependencies));
+    }
+
+    /**
+     * @return the tables that must be fully loaded and committed before this one can be loaded
+     */
+    public List<ImportTable> getDependencies() {
+        return dependencies;
+    }
+}
@@ -0,0 +1,188 @@
+package io.sustc.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Secondary indexes and physical-design settings for the service query paths.
+ * <p>
+ * The indexes are built once after the import has loaded the tables, which is much cheaper than
+ * maintaining them row by row. The sort orders of the composite indexes match the {@code ORDER BY}
+ * clauses of the queries they serve, so those queries can read rows in index order instead of sorting.
+ */
+@Component
+@Slf4j
+public class IndexManager {
+
+    private static final String[] INDEXES = {
+            // RecipeServiceImpl#searchRecipes, sort = rating_desc
+            "CREATE INDEX IF NOT EXISTS idx_recipes_rating ON recipes " +
+                    "(AggregatedRating DESC NULLS LAST, DatePublished DESC NULLS LAST, RecipeId)",
+            // RecipeServiceImpl#searchRecipes, sort = date_desc
+            "CREATE INDEX IF NOT EXISTS idx_recipes_date ON recipes (DatePublished DESC NULLS LAST, RecipeId)",
+            // RecipeServiceImpl#searchRecipes, sort = calories_asc, and getClosestCaloriePair
+            "CREATE INDEX IF NOT EXISTS idx_recipes_calories ON recipes (Calories, RecipeId)",
+            // category filter of searchRecipes and feed
+            "CREATE INDEX IF NOT EXISTS idx_recipes_category ON recipes (RecipeCategory)",
+            // UserServiceImpl#feed: per followed author, already in feed order, covering the feed columns
+            "CREATE INDEX IF NOT EXISTS idx_recipes_author_feed ON recipes " +
+                    "(AuthorId, DatePublished DESC, RecipeId DESC) " +
+                    "INCLUDE (RecipeCategory, Name, AggregatedRating, ReviewCount)",
+            // ReviewServiceImpl#listByRecipe, refreshRecipeAggregatedRating and RecipeServiceImpl#deleteRecipe
+            "CREATE INDEX IF NOT EXISTS idx_reviews_recipe ON reviews (RecipeId, DateModified DESC, ReviewId)",
+            // followers of a user; the primary key only serves lookups by FollowerId
+            "CREATE INDEX IF NOT EXISTS idx_user_follows_following ON user_follows (FollowingId, FollowerId)",
+    };
+
+    /**
+     * Trigram indexes for the keyword filter of {@link RecipeServiceImpl#searchRecipes}. A GIN trigram
+     * index answers {@code ILIKE '%kw%'} directly, so the planner combines the two with a BitmapOr and only
+     * re-checks the candidate rows; keywords shorter than three characters still fall back to a scan.
+     */
+    private static final String[] TRIGRAM_INDEXES = {
+            "CREATE INDEX IF NOT EXISTS idx_recipes_name_trgm ON recipes USING gin (Name gin_trgm_ops)",
+            "CREATE INDEX IF NOT EXISTS idx_recipes_description_trgm ON recipes USING gin (Description gin_trgm_ops)",
+    };
+
+    /**
+     * Storage parameters for tables whose rows are updated in place, leaving room for HOT updates.
+     */
+    private static final String[] STORAGE = {
+            "ALTER TABLE users SET (fillfactor = 90)",
+            "ALTER TABLE recipes SET (fillfactor = 90)",
+    };
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ImportPipeline importPipeline;
+
+    @Value("${sustc.search.trigram-indexes:true}")
+    private boolean trigramIndexes;
+
+    /**
+     * Builds all secondary indexes in parallel. Must run after the tables are loaded.
+     */
+    public void createIndexes() {
+        for (String sql : STORAGE) {
+            jdbcTemplate.execute(sql);
+        }
+        List<String> indexes = new ArrayList<>(Arrays.asList(INDEXES));
+        indexes.add(nameIndex());
+        if (trigramIndexes && createTrigramExtension()) {
+            indexes.addAll(Arrays.asList(TRIGRAM_INDEXES));
+        }
+        importPipeline.executeParallel("secondary indexes", indexes);
+    }
+
+    /**
+     * Makes sure {@code pg_trgm} is installed. It is a trusted extension, so the database owner may create it;
+     * without it the keyword search keeps scanning.
+     */
+    private boolean createTrigramExtension() {
+        try {
+            jdbcTemplate.execute("CREATE EXTENSION IF NOT EXISTS pg_trgm");
+            return true;
+        } catch (DataAccessException e) {
+            log.warn("pg_trgm is not available, keyword search will not be indexed: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Index for the name check of {@link UserServiceImpl#register}. Unique if the imported names are,
+     * which also guards against concurrent sign-ups under the same name; the sample data does contain
+     * duplicate names, so otherwise it is a plain index.
+     */
+    private String nameIndex() {
+        Boolean duplicates = jdbcTemplate.queryForObject(
+                "SELECT EXISTS (SELECT 1 FROM users GROUP BY AuthorName HAVING COUNT(*) > 1)", Boolean.class);
+        String kind = Boolean.TRUE.equals(duplicates) ? "INDEX" : "UNIQUE INDEX";
+        log.debug("Creating {} on users.AuthorName", kind);
+        return "CREATE " + kind + " IF NOT EXISTS idx_users_name ON users (AuthorName)";
+    }
+
+    /**
+     * Runs {@code EXPLAIN} on a representative instance of every service query.
+     *
+     * @param analyze whether to execute the queries and report actual timings ({@code EXPLAIN ANALYZE})
+     * @return query name to plan text, in a stable order
+     */
+    public Map<String, String> explainServiceQueries(boolean analyze) {
+        Long userId = sample("SELECT FollowerId FROM user_follows GROUP BY FollowerId ORDER BY COUNT(*) DESC LIMIT 1");
+        Long recipeId = sample("SELECT RecipeId FROM reviews GROUP BY RecipeId ORDER BY COUNT(*) DESC LIMIT 1");
+        String category = jdbcTemplate.query("SELECT RecipeCategory FROM recipes WHERE RecipeCategory IS NOT NULL LIMIT 1",
+                (rs, rowNum) -> rs.getString(1)).stream().findFirst().orElse("");
+
+        Map<String, Object[]> queries = new LinkedHashMap<>();
+        queries.put("RecipeService#getNameFromID",
+                new Object[]{"SELECT Name FROM recipes WHERE RecipeId = ?", recipeId});
+        queries.put("RecipeService#getRecipeById",
+                new Object[]{RecipeServiceImpl.RECIPE_SELECT + " WHERE r.RecipeId = ?", recipeId});
+        for (String sort : List.of("rating_desc", "date_desc", "calories_asc")) {
+            queries.put("RecipeService#searchRecipes(keyword, " + sort + ")",
+                    new Object[]{RecipeServiceImpl.RECIPE_SELECT +
+                            " WHERE u.IsDeleted = FALSE AND (r.Name ILIKE ? OR r.Description ILIKE ?) " +
+                            RecipeServiceImpl.searchOrderBy(sort) + " LIMIT 10 OFFSET 0", "%chicken%", "%chicken%"});
+            queries.put("RecipeService#searchRecipes(category, " + sort + ")",
+                    new Object[]{RecipeServiceImpl.RECIPE_SELECT +
+                            " WHERE u.IsDeleted = FALSE AND r.RecipeCategory = ? " +
+                            RecipeServiceImpl.searchOrderBy(sort) + " LIMIT 10 OFFSET 0", category});
+        }
+        queries.put("RecipeService#getClosestCaloriePair",
+                new Object[]{RecipeServiceImpl.CLOSEST_CALORIE_PAIR_SQL});
+        queries.put("RecipeService#getTop3MostComplexRecipesByIngredients",
+                new Object[]{RecipeServiceImpl.TOP3_COMPLEX_SQL});
+        queries.put("ReviewService#listByRecipe(date_desc)",
+                new Object[]{ReviewServiceImpl.listByRecipeSql("date_desc"), recipeId, 10, 0});
+        queries.put("ReviewService#listByRecipe(likes_desc)",
+                new Object[]{ReviewServiceImpl.listByRecipeSql("likes_desc"), recipeId, 10, 0});
+        queries.put("UserService#getById",
+                new Object[]{UserServiceImpl.GET_BY_ID_SQL, userId});
+        long[] followees = jdbcTemplate.queryForList("SELECT FollowingId FROM user_follows WHERE FollowerId = ?", Long.class, userId)
+                .stream().mapToLong(Long::longValue).toArray();
+        queries.put("UserService#feed(follow graph)",
+                new Object[]{UserServiceImpl.feedPageSql(UserServiceImpl.FEED_BY_FOLLOWEES), followees, 10, 0});
+        queries.put("UserService#feed(user_follows)",
+                new Object[]{UserServiceImpl.feedPageSql(UserServiceImpl.FEED_BY_FOLLOWER), userId, 10, 0});
+
+        Map<String, String> plans = new LinkedHashMap<>();
+        String prefix = analyze ? "EXPLAIN (ANALYZE, BUFFERS) " : "EXPLAIN ";
+        queries.forEach((name, query) -> {
+            Object[] args = Arrays.copyOfRange(query, 1, query.length);
+            try {
+                List<String> lines = jdbcTemplate.query(prefix + query[0], (rs, rowNum) -> rs.getString(1), args);
+                plans.put(name, String.join("\n", lines));
+            } catch (RuntimeException e) {
+                plans.put(name, "failed: " + e.getMessage());
+            }
+        });
+        return plans;
+    }
+
+    /**
+     * @return the names of the secondary indexes that currently exist, for diagnostics
+     */
+    public String describe() {
+        return jdbcTemplate.queryForList(
+                        "SELECT indexname FROM pg_indexes WHERE schemaname = 'public' AND indexname LIKE 'idx\\_%' ORDER BY 1",
+                        String.class)
+                .stream().collect(Collectors.joining(", "));
+    }
+
+    private Long sample(String sql) {
+        return jdbcTemplate.query(sql, (rs, rowNum) -> rs.getLong(1)).stream().findFirst().orElse(1L);
+    }
+}
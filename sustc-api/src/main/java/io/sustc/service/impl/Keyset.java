@@ -0,0 +1,274 @@
+package io.sustc.service.impl;
+
+import io.sustc.dto.PageResult;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Keyset ("seek") pagination over a fixed sort order.
+ * <p>
+ * Instead of skipping {@code OFFSET} rows, a page starts right after the sort keys of the last row of the
+ * previous page, so a deep page costs about as much as the first one when an index matches the order.
+ * The keys travel to the client as an opaque cursor: the name of the order, the number of the next page
+ * and the typed key values, Base64 encoded. The last key must be unique, so that the order is total.
+ * <p>
+ * The position after the cursor is expressed as a range on the first key (which the index can seek to)
+ * plus the exact lexicographic condition. Where the {@code NULL}s of the first key fall on the other side
+ * of that range, they are read by a second, separately limited branch of a {@code UNION ALL}.
+ */
+final class Keyset {
+
+    enum Nulls {
+        FIRST, LAST,
+        /**
+         * The column is never null.
+         */
+        NONE
+    }
+
+    /**
+     * One sort key: the SQL expression to order and compare by, and the label it is selected under.
+     */
+    record Key(String expression, String label, boolean descending, Nulls nulls) {
+
+        String orderBy() {
+            return expression + (descending ? " DESC" : " ASC") + switch (nulls) {
+                case FIRST -> " NULLS FIRST";
+                case LAST -> " NULLS LAST";
+                case NONE -> "";
+            };
+        }
+    }
+
+    private record Branch(String predicate, List<Object> params) {
+    }
+
+    private final String name;
+    private final Key[] keys;
+
+    Keyset(String name, Key... keys) {
+        this.name = name;
+        this.keys = keys;
+    }
+
+    /**
+     * @return the ORDER BY clause of this order
+     */
+    String orderBy() {
+        StringBuilder sb = new StringBuilder(" ORDER BY ");
+        for (int i = 0; i < keys.length; i++) {
+            sb.append(i == 0 ? "" : ", ").append(keys[i].orderBy());
+        }
+        return sb.append(' ').toString();
+    }
+
+    /**
+     * Reads the page after {@code cursor}, or the first page if it is {@code null}.
+     *
+     * @param select the SELECT and FROM part; every key must be selected under its label
+     * @param where  a non-empty WHERE clause with its {@code params}
+     * @param total  reported as {@link PageResult#getTotal()}
+     * @throws IllegalArgumentException if the cursor was not issued for this order
+     */
+    <T> PageResult<T> fetch(JdbcTemplate jdbcTemplate, String select, String where, List<?> params,
+                            String cursor, int size, long total, RowMapper<T> mapper) {
+        int page = 1;
+        List<Object> args = new ArrayList<>();
+        String sql;
+        if (cursor == null) {
+            sql = select + where + orderBy() + " LIMIT ?";
+            args.addAll(params);
+        } else {
+            String[] fields = decode(cursor);
+            page = parsePage(fields[1]);
+            Object[] after = new Object[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                after[i] = parseValue(fields[i + 2]);
+            }
+            List<Branch> branches = branches(after);
+            if (branches.size() == 1) {
+                sql = select + where + " AND " + branches.get(0).predicate() + orderBy() + " LIMIT ?";
+                args.addAll(params);
+                args.addAll(branches.get(0).params());
+            } else {
+                StringBuilder sb = new StringBuilder("SELECT * FROM (");
+                for (int i = 0; i < branches.size(); i++) {
+                    sb.append(i == 0 ? "" : " UNION ALL ")
+                            .append("SELECT ").append(i).append(" AS seek_branch, q.* FROM (")
+                            .append(select).append(where).append(" AND ").append(branches.get(i).predicate())
+                            .append(orderBy()).append(" LIMIT ?) q");
+                    args.addAll(params);
+                    args.addAll(branches.get(i).params());
+                    args.add(size + 1);
+                }
+                sb.append(") s ORDER BY seek_branch");
+                for (Key key : keys) {
+                    sb.append(", ").append(new Key(key.label(), key.label(), key.descending(), key.nulls()).orderBy());
+                }
+                sql = sb.append(" LIMIT ?").toString();
+            }
+        }
+        // 多取一行，用于判断是否还有下一页
+        args.add(size + 1);
+
+        Object[][] last = new Object[1][];
+        List<T> items = jdbcTemplate.query(sql, (rs, rowNum) -> {
+            if (rowNum == size - 1) {
+                last[0] = readKeys(rs);
+            }
+            return mapper.mapRow(rs, rowNum);
+        }, args.toArray());
+
+        String nextCursor = null;
+        if (items.size() > size) {
+            items = new ArrayList<>(items.subList(0, size));
+            nextCursor = encode(page + 1, last[0]);
+        }
+        return PageResult.<T>builder()
+                .items(items)
+                .page(page)
+                .size(size)
+                .total(total)
+                .nextCursor(nextCursor)
+                .build();
+    }
+
+    private List<Branch> branches(Object[] after) {
+        Key first = keys[0];
+        Object value = after[0];
+        List<Branch> branches = new ArrayList<>();
+        if (value == null) {
+            // 游标停在第一个键为 NULL 的区段内
+            List<Object> params = new ArrayList<>();
+            String exact = exact(after, params);
+            branches.add(new Branch(first.expression() + " IS NULL AND " + exact, params));
+            if (first.nulls() == Nulls.FIRST) {
+                branches.add(new Branch(first.expression() + " IS NOT NULL", new ArrayList<>()));
+            }
+            return branches;
+        }
+        List<Object> params = new ArrayList<>();
+        params.add(value);
+        String bound = first.expression() + (first.descending() ? " <= ?" : " >= ?");
+        branches.add(new Branch(bound + " AND " + exact(after, params), params));
+        if (first.nulls() == Nulls.LAST) {
+            branches.add(new Branch(first.expression() + " IS NULL", new ArrayList<>()));
+        }
+        return branches;
+    }
+
+    /**
+     * The rows strictly after {@code after} in this order: for some key, all keys before it are equal
+     * and the key itself comes later.
+     */
+    private String exact(Object[] after, List<Object> params) {
+        StringBuilder sb = new StringBuilder("(");
+        for (int i = 0; i < keys.length; i++) {
+            sb.append(i == 0 ? "(" : " OR (");
+            for (int j = 0; j < i; j++) {
+                Key key = keys[j];
+                if (after[j] == null) {
+                    sb.append(key.expression()).append(" IS NULL AND ");
+                } else {
+                    sb.append(key.expression()).append(" = ? AND ");
+                    params.add(after[j]);
+                }
+            }
+            Key key = keys[i];
+            if (after[i] == null) {
+                sb.append(key.nulls() == Nulls.FIRST ? key.expression() + " IS NOT NULL" : "FALSE");
+            } else {
+                String compare = key.expression() + (key.descending() ? " < ?" : " > ?");
+                sb.append(key.nulls() == Nulls.LAST ? "(" + compare + " OR " + key.expression() + " IS NULL)" : compare);
+                params.add(after[i]);
+            }
+            sb.append(')');
+        }
+        return sb.append(')').toString();
+    }
+
+    private Object[] readKeys(ResultSet rs) throws SQLException {
+        Object[] values = new Object[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            values[i] = rs.getObject(keys[i].label());
+        }
+        return values;
+    }
+
+    private String encode(int page, Object[] values) {
+        StringBuilder sb = new StringBuilder(name).append('|').append(page);
+        for (Object value : values) {
+            sb.append('|');
+            if (value == null) {
+                sb.append('n');
+            } else if (value instanceof Long) {
+                sb.append('l').append(value);
+            } else if (value instanceof Integer) {
+                sb.append('i').append(value);
+            } else if (value instanceof BigDecimal decimal) {
+                sb.append('d').append(decimal.toPlainString());
+            } else if (value instanceof Timestamp) {
+                sb.append('t').append(value);
+            } else if (value instanceof Double) {
+                sb.append('f').append(value);
+            } else if (value instanceof Float) {
+                sb.append('r').append(value);
+            } else {
+                throw new IllegalStateException("Unsupported sort key type " + value.getClass().getName());
+            }
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String[] decode(String cursor) {
+        String[] fields;
+        try {
+            fields = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\\|", -1);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        if (fields.length != keys.length + 2 || !fields[0].equals(name)) {
+            throw new IllegalArgumentException("Cursor does not belong to this query");
+        }
+        return fields;
+    }
+
+    private static int parsePage(String field) {
+        try {
+            return Integer.parseInt(field);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+    }
+
+    private static Object parseValue(String field) {
+        if (field.isEmpty()) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        String text = field.substring(1);
+        try {
+            return switch (field.charAt(0)) {
+                case 'n' -> null;
+                case 'l' -> Long.parseLong(text);
+                case 'i' -> Integer.parseInt(text);
+                case 'd' -> new BigDecimal(text);
+                case 't' -> Timestamp.valueOf(text);
+                case 'f' -> Double.parseDouble(text);
+                case 'r' -> Float.parseFloat(text);
+                default -> throw new IllegalArgumentException("Invalid cursor");
+            };
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException 也是 IllegalArgumentException
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+    }
+}
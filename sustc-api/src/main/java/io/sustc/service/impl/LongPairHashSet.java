@@ -0,0 +1,116 @@
+package io.sustc.service.impl;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash set of {@code (long, long)} pairs, stored in two parallel primitive arrays.
+ * <p>
+ * Unlike a {@code Set<Object[]>} or a set of boxed keys it allocates nothing per element, which
+ * matters when millions of follow edges go through it during import. {@link Long#MIN_VALUE} is
+ * reserved as the empty-slot marker and cannot be used as the first component. Not thread-safe.
+ */
+public final class LongPairHashSet {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] firsts;
+    private long[] seconds;
+    private int mask;
+    private int size;
+
+    public LongPairHashSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2 - 1)) << 1;
+        allocate(capacity);
+    }
+
+    /**
+     * @return {@code true} if the pair was not yet in the set
+     */
+    public boolean add(long first, long second) {
+        if (first == EMPTY) {
+            throw new IllegalArgumentException("Long.MIN_VALUE is reserved");
+        }
+        int slot = slot(first, second);
+        while (firsts[slot] != EMPTY) {
+            if (firsts[slot] == first && seconds[slot] == second) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        firsts[slot] = first;
+        seconds[slot] = second;
+        if (++size * 2 > firsts.length) {
+            rehash();
+        }
+        return true;
+    }
+
+    public boolean contains(long first, long second) {
+        int slot = slot(first, second);
+        while (firsts[slot] != EMPTY) {
+            if (firsts[slot] == first && seconds[slot] == second) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Copies the pairs into the given arrays, which must hold at least {@link #size()} elements.
+     * The order is the internal slot order.
+     */
+    public void copyTo(long[] firstsOut, long[] secondsOut) {
+        int n = 0;
+        for (int i = 0; i < firsts.length; i++) {
+            if (firsts[i] != EMPTY) {
+                firstsOut[n] = firsts[i];
+                secondsOut[n] = seconds[i];
+                n++;
+            }
+        }
+    }
+
+    private int slot(long first, long second) {
+        return (int) mix(first * 0x9E3779B97F4A7C15L + second) & mask;
+    }
+
+    /**
+     * MurmurHash3 64-bit finalizer.
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private void allocate(int capacity) {
+        firsts = new long[capacity];
+        seconds = new long[capacity];
+        Arrays.fill(firsts, EMPTY);
+        mask = capacity - 1;
+    }
+
+    private void rehash() {
+        long[] oldFirsts = firsts;
+        long[] oldSeconds = seconds;
+        allocate(oldFirsts.length << 1);
+        for (int i = 0; i < oldFirsts.length; i++) {
+            if (oldFirsts[i] != EMPTY) {
+                int slot = slot(oldFirsts[i], oldSeconds[i]);
+                while (firsts[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                firsts[slot] = oldFirsts[i];
+                seconds[slot] = oldSeconds[i];
+            }
+        }
+    }
+}
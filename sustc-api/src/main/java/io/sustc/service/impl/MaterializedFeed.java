@@ -0,0 +1,193 @@
+package io.sustc.service.impl;
+
+import io.sustc.dto.FeedItem;
+import io.sustc.dto.PageResult;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Optional fan-out-on-write timeline: one {@code user_feed} row per follower and recipe of a followed author.
+ * <p>
+ * With {@code sustc.feed.materialized} enabled, the table is built at the end of the import and kept up to
+ * date by {@code createRecipe}, {@code deleteRecipe}, {@code follow} and {@code deleteAccount}, all in the
+ * same transaction as the change itself. A feed page is then a range read of one user's timeline index
+ * instead of a join over every recipe of every followed author. Writes get more expensive in return:
+ * publishing a recipe inserts a row per follower.
+ */
+@Component
+@Slf4j
+public class MaterializedFeed {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${sustc.feed.materialized:false}")
+    private boolean enabled;
+
+    @Autowired
+    private TotalsCache totalsCache;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Recreates and fills {@code user_feed} from the imported follows and recipes, then indexes it.
+     * The table only holds derived rows, so it is rebuilt from scratch, with the key added after the load.
+     * Only active users get a timeline, since only they can read one.
+     */
+    public void build() {
+        if (!enabled) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        jdbcTemplate.execute("DROP TABLE IF EXISTS user_feed");
+        jdbcTemplate.execute("""
+                CREATE TABLE user_feed (
+                    UserId BIGINT NOT NULL,
+                    RecipeId BIGINT NOT NULL,
+                    AuthorId BIGINT NOT NULL,
+                    DatePublished TIMESTAMP,
+                    RecipeCategory TEXT
+                )""");
+        int rows = jdbcTemplate.update("""
+                INSERT INTO user_feed (UserId, RecipeId, AuthorId, DatePublished, RecipeCategory)
+                SELECT f.FollowerId, r.RecipeId, r.AuthorId, r.DatePublished, r.RecipeCategory
+                FROM user_follows f
+                JOIN users u ON u.AuthorId = f.FollowerId AND u.IsDeleted = FALSE
+                JOIN recipes r ON r.AuthorId = f.FollowingId""");
+        jdbcTemplate.execute("ALTER TABLE user_feed ADD PRIMARY KEY (UserId, RecipeId)");
+        // the feed order of UserServiceImpl#feed, per user
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_user_feed_timeline ON user_feed (UserId, DatePublished DESC, RecipeId DESC)");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_user_feed_recipe ON user_feed (RecipeId)");
+        jdbcTemplate.execute("ANALYZE user_feed");
+        log.debug("Materialized {} feed entries in {} ms", rows, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Adds a new recipe to the timelines of its author's active followers. Deleted followers whose edges
+     * are not cleaned up yet are skipped; their timeline was dropped with the account.
+     */
+    public void recipePublished(long recipeId, long authorId, Timestamp datePublished, String category) {
+        if (!enabled) {
+            return;
+        }
+        jdbcTemplate.update("""
+                INSERT INTO user_feed (UserId, RecipeId, AuthorId, DatePublished, RecipeCategory)
+                SELECT f.FollowerId, ?, ?, ?, ?
+                FROM user_follows f
+                JOIN users u ON u.AuthorId = f.FollowerId
+                WHERE f.FollowingId = ? AND u.IsDeleted = FALSE
+                ON CONFLICT DO NOTHING""",
+                recipeId, authorId, datePublished, category, authorId);
+    }
+
+    public void recipeDeleted(long recipeId) {
+        if (!enabled) {
+            return;
+        }
+        jdbcTemplate.update("DELETE FROM user_feed WHERE RecipeId = ?", recipeId);
+    }
+
+    /**
+     * Drops the user's own timeline and their recipes from everybody else's.
+     */
+    public void userDeleted(long authorId) {
+        if (!enabled) {
+            return;
+        }
+        jdbcTemplate.update("DELETE FROM user_feed WHERE UserId = ?", authorId);
+        jdbcTemplate.update("DELETE FROM user_feed WHERE RecipeId IN (SELECT RecipeId FROM recipes WHERE AuthorId = ?)", authorId);
+    }
+
+    /**
+     * Extra steps of the follow toggle that keep the timeline in step with the edge, appended to the
+     * {@code removed} and {@code added} steps of {@link UserServiceImpl#FOLLOW_TOGGLE_STEPS}. Parameters:
+     * follower, followee, follower, followee.
+     */
+    static final String FOLLOW_TOGGLE_STEPS = """
+            , feed_removed AS (
+                DELETE FROM user_feed
+                WHERE UserId = ? AND AuthorId = ? AND EXISTS (SELECT 1 FROM removed)
+            ), feed_added AS (
+                INSERT INTO user_feed (UserId, RecipeId, AuthorId, DatePublished, RecipeCategory)
+                SELECT ?, r.RecipeId, r.AuthorId, r.DatePublished, r.RecipeCategory
+                FROM recipes r
+                WHERE r.AuthorId = ? AND EXISTS (SELECT 1 FROM added)
+                ON CONFLICT DO NOTHING
+            )
+            """;
+
+    /**
+     * @return the page of the user's timeline and its total size
+     */
+    public Page page(long userId, String category, int page, int size, RowMapper<FeedItem> mapper) {
+        String filter = " WHERE f.UserId = ?";
+        List<Object> params = new ArrayList<>();
+        params.add(userId);
+        if (category != null && !category.isEmpty()) {
+            filter += " AND f.RecipeCategory = ?";
+            params.add(category);
+        }
+
+        long total = count(userId, category, filter, params);
+
+        params.add(size);
+        params.add((long) (page - 1) * size);
+        List<FeedItem> items = jdbcTemplate.query(
+                "SELECT r.RecipeId, r.Name, r.AuthorId, u.AuthorName, r.DatePublished, r.AggregatedRating, r.ReviewCount " +
+                        "FROM (SELECT f.RecipeId, f.DatePublished FROM user_feed f" + filter +
+                        " ORDER BY f.DatePublished DESC, f.RecipeId DESC LIMIT ? OFFSET ?) p " +
+                        "JOIN recipes r ON r.RecipeId = p.RecipeId " +
+                        "JOIN users u ON u.AuthorId = r.AuthorId " +
+                        "ORDER BY p.DatePublished DESC, p.RecipeId DESC",
+                mapper, params.toArray());
+        return new Page(items, total);
+    }
+
+    /**
+     * The page of the user's timeline after {@code cursor}; see {@link Keyset}.
+     */
+    public PageResult<FeedItem> pageAfter(long userId, String category, String cursor, int size, RowMapper<FeedItem> mapper) {
+        String filter = " WHERE f.UserId = ?";
+        List<Object> params = new ArrayList<>();
+        params.add(userId);
+        if (category != null && !category.isEmpty()) {
+            filter += " AND f.RecipeCategory = ?";
+            params.add(category);
+        }
+
+        long total = cursor == null ? count(userId, category, filter, params) : -1;
+        return TIMELINE_KEYSET.fetch(jdbcTemplate, TIMELINE_SELECT, filter, params, cursor, size, total, mapper);
+    }
+
+    private long count(long userId, String category, String filter, List<Object> params) {
+        return totalsCache.count(TotalsCache.Query.FEED, Arrays.asList(userId, category == null || category.isEmpty() ? null : category),
+                "SELECT COUNT(*) FROM user_feed f" + filter, params.toArray());
+    }
+
+    private static final String TIMELINE_SELECT =
+            "SELECT r.RecipeId, r.Name, r.AuthorId, u.AuthorName, r.DatePublished, r.AggregatedRating, r.ReviewCount " +
+                    "FROM user_feed f " +
+                    "JOIN recipes r ON r.RecipeId = f.RecipeId " +
+                    "JOIN users u ON u.AuthorId = r.AuthorId";
+
+    /**
+     * Same order and cursor format as {@link UserServiceImpl#FEED_KEYSET}, read from the timeline index.
+     */
+    private static final Keyset TIMELINE_KEYSET = new Keyset("feed",
+            new Keyset.Key("f.DatePublished", "DatePublished", true, Keyset.Nulls.FIRST),
+            new Keyset.Key("f.RecipeId", "RecipeId", true, Keyset.Nulls.NONE));
+
+    public record Page(List<FeedItem> items, long total) {
+    }
+}
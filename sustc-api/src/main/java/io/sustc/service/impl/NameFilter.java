@@ -0,0 +1,186 @@
+package io.sustc.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Bloom filter over {@code users.AuthorName}, so {@code register} can skip the name lookup for a name
+ * that is certainly new.
+ * <p>
+ * {@link #testAndAdd} never returns {@code false} for a name that is in the table; a {@code true} only
+ * means the table has to be asked. The filter is built from the table after every import, or on first use
+ * if this process did not run the import, with room for twice the names there are. Names registered
+ * afterwards are added before their insert, inside {@link #withoutReload}, so a reload cannot read the
+ * table before that insert commits and then drop the name. Once the filter holds more names than it was
+ * sized for, it answers {@code true} for everything until the next import, rather than being rebuilt from
+ * a table that may not show the names of inserts still in flight.
+ */
+@Component
+@Slf4j
+public class NameFilter {
+
+    private static final int HASHES = 7;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Bits per name the filter is sized for; 10 gives about 1% false positives.
+     */
+    @Value("${sustc.name-filter.bits-per-name:10}")
+    private int bitsPerName;
+
+    /**
+     * A fixed-size bit array. Bits are set with CAS; {@link #testAndAdd} also holds the monitor, so that
+     * checking and setting all bits of a name is one step.
+     */
+    private static final class Bits {
+
+        final AtomicLongArray words;
+        final long size;
+        final long capacity;
+        final AtomicLong count = new AtomicLong();
+
+        Bits(long capacity, int bitsPerName) {
+            long bits = Math.max(1 << 16, capacity * Math.max(1, bitsPerName));
+            this.words = new AtomicLongArray((int) Math.min(Integer.MAX_VALUE - 8, (bits + 63) >>> 6));
+            this.size = (long) words.length() << 6;
+            this.capacity = capacity;
+        }
+
+        void add(String name) {
+            long hash = hash(name);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 0; i < HASHES; i++) {
+                long bit = Math.floorMod(h1 + (long) i * h2, size);
+                int word = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long old;
+                do {
+                    old = words.get(word);
+                } while ((old & mask) == 0 && !words.compareAndSet(word, old, old | mask));
+            }
+            count.incrementAndGet();
+        }
+
+        /**
+         * @return whether all bits of the name were already set, i.e. it may have been added before
+         */
+        synchronized boolean testAndAdd(String name) {
+            boolean present = count.get() > capacity || contains(name);
+            if (!present) {
+                add(name);
+            }
+            return present;
+        }
+
+        private boolean contains(String name) {
+            long hash = hash(name);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 0; i < HASHES; i++) {
+                long bit = Math.floorMod(h1 + (long) i * h2, size);
+                if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private volatile Bits bits;
+
+    /**
+     * Held for reading by registrations and for writing by {@link #load}.
+     */
+    private final ReadWriteLock reloadLock = new ReentrantReadWriteLock();
+
+    /**
+     * Records a name about to be inserted and reports whether a user may already have it. Of the calls for
+     * the same name, only the first returns {@code false}; once the filter is over capacity, all return
+     * {@code true}. Call inside {@link #withoutReload}, before the insert.
+     *
+     * @return {@code false} if no user has this name, {@code true} if one may have
+     */
+    public boolean testAndAdd(String name) {
+        return ensureLoaded().testAndAdd(name);
+    }
+
+    /**
+     * Runs the registration of a name, including the commit of its insert, while the filter cannot be reloaded.
+     */
+    public <T> T withoutReload(Supplier<T> registration) {
+        // 先完成首次载入，持有读锁时不能再取写锁
+        ensureLoaded();
+        reloadLock.readLock().lock();
+        try {
+            return registration.get();
+        } finally {
+            reloadLock.readLock().unlock();
+        }
+    }
+
+    @EventListener
+    public synchronized void onDataImported(DataImportedEvent event) {
+        load();
+    }
+
+    private Bits ensureLoaded() {
+        Bits current = bits;
+        if (current == null) {
+            synchronized (this) {
+                if (bits == null) {
+                    load();
+                }
+                current = bits;
+            }
+        }
+        return current;
+    }
+
+    private void load() {
+        long start = System.currentTimeMillis();
+        Bits loaded;
+        // 等待进行中的注册提交，使读取的表包含它们已加入旧过滤器的名字
+        reloadLock.writeLock().lock();
+        try {
+            Long users = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM users", Long.class);
+            loaded = new Bits(Math.max(1024, 2 * (users == null ? 0 : users)), bitsPerName);
+            jdbcTemplate.query("SELECT AuthorName FROM users WHERE AuthorName IS NOT NULL", rs -> {
+                loaded.add(rs.getString(1));
+            });
+            bits = loaded;
+        } finally {
+            reloadLock.writeLock().unlock();
+        }
+        log.debug("Loaded name filter with {} names in {} ms", loaded.count.get(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-16 code units, split into the two hashes of the double-hashing scheme.
+     */
+    private static long hash(String name) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            h = (h ^ (c & 0xff)) * 0x100000001b3L;
+            h = (h ^ (c >>> 8)) * 0x100000001b3L;
+        }
+        // 再混合一次，使高低 32 位都足够均匀
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
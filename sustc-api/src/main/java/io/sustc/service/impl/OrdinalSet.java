@@ -0,0 +1,152 @@
+package io.sustc.service.impl;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Compressed set of non-negative ints in the style of a roaring bitmap.
+ * <p>
+ * The values are split by their upper 16 bits into chunks of 65536. A chunk with at most
+ * {@link #ARRAY_LIMIT} values is a sorted {@code char[]}; a fuller one becomes a 65536-bit {@code long[]}.
+ * Sparse sets (most n-gram postings) thus cost about two bytes per value and dense ones (common n-grams,
+ * large categories) an eighth of a byte. Not thread-safe.
+ */
+final class OrdinalSet {
+
+    private static final int ARRAY_LIMIT = 4096;
+
+    private int[] keys = new int[0];
+    /**
+     * Per key either a {@code char[]} holding {@code sizes[i]} sorted values or a {@code long[1024]} bitmap.
+     */
+    private Object[] containers = new Object[0];
+    private int[] sizes = new int[0];
+    private int chunkCount;
+    private long cardinality;
+
+    long cardinality() {
+        return cardinality;
+    }
+
+    boolean contains(int value) {
+        int i = Arrays.binarySearch(keys, 0, chunkCount, value >>> 16);
+        if (i < 0) {
+            return false;
+        }
+        char low = (char) value;
+        Object container = containers[i];
+        if (container instanceof long[] bits) {
+            return (bits[low >>> 6] & (1L << low)) != 0;
+        }
+        return Arrays.binarySearch((char[]) container, 0, sizes[i], low) >= 0;
+    }
+
+    void add(int value) {
+        int i = Arrays.binarySearch(keys, 0, chunkCount, value >>> 16);
+        if (i < 0) {
+            i = insertChunk(-i - 1, value >>> 16);
+        }
+        char low = (char) value;
+        Object container = containers[i];
+        if (container instanceof long[] bits) {
+            long mask = 1L << low;
+            if ((bits[low >>> 6] & mask) == 0) {
+                bits[low >>> 6] |= mask;
+                sizes[i]++;
+                cardinality++;
+            }
+            return;
+        }
+        char[] values = (char[]) container;
+        int size = sizes[i];
+        // 通常按递增顺序添加，先检查末尾
+        int at = size > 0 && values[size - 1] < low ? -size - 1 : Arrays.binarySearch(values, 0, size, low);
+        if (at >= 0) {
+            return;
+        }
+        at = -at - 1;
+        if (size == ARRAY_LIMIT) {
+            long[] bits = new long[1024];
+            for (int j = 0; j < size; j++) {
+                bits[values[j] >>> 6] |= 1L << values[j];
+            }
+            bits[low >>> 6] |= 1L << low;
+            containers[i] = bits;
+        } else {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT, Math.max(4, size * 2)));
+                containers[i] = values;
+            }
+            System.arraycopy(values, at, values, at + 1, size - at);
+            values[at] = low;
+        }
+        sizes[i] = size + 1;
+        cardinality++;
+    }
+
+    void remove(int value) {
+        int i = Arrays.binarySearch(keys, 0, chunkCount, value >>> 16);
+        if (i < 0) {
+            return;
+        }
+        char low = (char) value;
+        Object container = containers[i];
+        if (container instanceof long[] bits) {
+            long mask = 1L << low;
+            if ((bits[low >>> 6] & mask) != 0) {
+                bits[low >>> 6] &= ~mask;
+                sizes[i]--;
+                cardinality--;
+            }
+            return;
+        }
+        char[] values = (char[]) container;
+        int at = Arrays.binarySearch(values, 0, sizes[i], low);
+        if (at >= 0) {
+            System.arraycopy(values, at + 1, values, at, sizes[i] - at - 1);
+            sizes[i]--;
+            cardinality--;
+        }
+    }
+
+    /**
+     * Calls the action for every value, in ascending order.
+     */
+    void forEach(IntConsumer action) {
+        for (int i = 0; i < chunkCount; i++) {
+            int high = keys[i] << 16;
+            Object container = containers[i];
+            if (container instanceof long[] bits) {
+                for (int w = 0; w < bits.length; w++) {
+                    long word = bits[w];
+                    while (word != 0) {
+                        action.accept(high | (w << 6) | Long.numberOfTrailingZeros(word));
+                        word &= word - 1;
+                    }
+                }
+            } else {
+                char[] values = (char[]) container;
+                for (int j = 0, n = sizes[i]; j < n; j++) {
+                    action.accept(high | values[j]);
+                }
+            }
+        }
+    }
+
+    private int insertChunk(int at, int key) {
+        if (chunkCount == keys.length) {
+            int capacity = Math.max(4, chunkCount * 2);
+            keys = Arrays.copyOf(keys, capacity);
+            containers = Arrays.copyOf(containers, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+        }
+        System.arraycopy(keys, at, keys, at + 1, chunkCount - at);
+        System.arraycopy(containers, at, containers, at + 1, chunkCount - at);
+        System.arraycopy(sizes, at, sizes, at + 1, chunkCount - at);
+        keys[at] = key;
+        containers[at] = new char[4];
+        sizes[at] = 0;
+        chunkCount++;
+        return at;
+    }
+}
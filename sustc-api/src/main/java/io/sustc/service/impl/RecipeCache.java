@@ -0,0 +1,161 @@
+package io.sustc.service.impl;
+
+import io.sustc.dto.RecipeRecord;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.Timestamp;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+
+/**
+ * Read-through cache of the records returned by {@code getRecipeById}.
+ * <p>
+ * Writers call {@link #invalidate} for every recipe they change. The entry is dropped right away and again
+ * after the transaction commits. Until then, reads of that recipe in the writing transaction bypass the
+ * cache, so they see their own changes. Records read inside a transaction are never stored, since they may
+ * show uncommitted changes. A record read outside one is only stored if no invalidation happened while it
+ * was read, so a read that overlaps a commit cannot bring back the old record.
+ * <p>
+ * Callers get copies; the cached records are never handed out.
+ */
+@Component
+public class RecipeCache {
+
+    /**
+     * Maximum number of cached recipes, 0 disables the cache.
+     */
+    @Value("${sustc.recipe-cache.size:50000}")
+    private int maxSize;
+
+    /**
+     * Bumped by every invalidation.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    private final Map<Long, RecipeRecord> entries = new LinkedHashMap<>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, RecipeRecord> eldest) {
+            return size() > maxSize;
+        }
+    };
+
+    /**
+     * @param loader reads the recipe, or returns {@code null} if it does not exist; misses are not cached
+     */
+    public RecipeRecord get(long recipeId, LongFunction<RecipeRecord> loader) {
+        if (maxSize <= 0) {
+            return loader.apply(recipeId);
+        }
+        boolean inTransaction = TransactionSynchronizationManager.isActualTransactionActive();
+        if (inTransaction && changedInTransaction(recipeId)) {
+            return loader.apply(recipeId);
+        }
+        synchronized (entries) {
+            RecipeRecord cached = entries.get(recipeId);
+            if (cached != null) {
+                return copy(cached);
+            }
+        }
+        long before = generation.get();
+        RecipeRecord recipe = loader.apply(recipeId);
+        if (recipe != null && !inTransaction) {
+            synchronized (entries) {
+                if (generation.get() == before) {
+                    entries.put(recipeId, copy(recipe));
+                }
+            }
+        }
+        return recipe;
+    }
+
+    /**
+     * Drops the recipe now and once the current transaction (if any) commits.
+     */
+    public void invalidate(long recipeId) {
+        remove(recipeId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            changedIds().add(recipeId);
+        }
+        TransactionHooks.afterCommit(() -> remove(recipeId));
+    }
+
+    @EventListener
+    public void onDataImported(DataImportedEvent event) {
+        generation.incrementAndGet();
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    private void remove(long recipeId) {
+        synchronized (entries) {
+            generation.incrementAndGet();
+            entries.remove(recipeId);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean changedInTransaction(long recipeId) {
+        Set<Long> ids = (Set<Long>) TransactionSynchronizationManager.getResource(this);
+        return ids != null && ids.contains(recipeId);
+    }
+
+    /**
+     * The recipes invalidated by the current transaction, bound to it until it completes.
+     */
+    @SuppressWarnings("unchecked")
+    private Set<Long> changedIds() {
+        Set<Long> ids = (Set<Long>) TransactionSynchronizationManager.getResource(this);
+        if (ids == null) {
+            ids = new HashSet<>();
+            TransactionSynchronizationManager.bindResource(this, ids);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(RecipeCache.this);
+                }
+            });
+        }
+        return ids;
+    }
+
+    /**
+     * @return a deep copy; also used by {@link SearchResultCache}
+     */
+    static RecipeRecord copy(RecipeRecord r) {
+        return RecipeRecord.builder()
+                .RecipeId(r.getRecipeId())
+                .name(r.getName())
+                .authorId(r.getAuthorId())
+                .authorName(r.getAuthorName())
+                .cookTime(r.getCookTime())
+                .prepTime(r.getPrepTime())
+                .totalTime(r.getTotalTime())
+                .datePublished(r.getDatePublished() == null ? null : (Timestamp) r.getDatePublished().clone())
+                .description(r.getDescription())
+                .recipeCategory(r.getRecipeCategory())
+                .recipeIngredientParts(r.getRecipeIngredientParts() == null ? null : r.getRecipeIngredientParts().clone())
+                .aggregatedRating(r.getAggregatedRating())
+                .reviewCount(r.getReviewCount())
+                .calories(r.getCalories())
+                .fatContent(r.getFatContent())
+                .saturatedFatContent(r.getSaturatedFatContent())
+                .cholesterolContent(r.getCholesterolContent())
+                .sodiumContent(r.getSodiumContent())
+                .carbohydrateContent(r.getCarbohydrateContent())
+                .fiberContent(r.getFiberContent())
+                .sugarContent(r.getSugarContent())
+                .proteinContent(r.getProteinContent())
+                .recipeServings(r.getRecipeServings())
+                .recipeYield(r.getRecipeYield())
+                .build();
+    }
+}
@@ -0,0 +1,328 @@
+package io.sustc.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Recipe names by id, held outside the Java heap, for {@code getNameFromID}.
+ * <p>
+ * The names are appended as UTF-8 to a direct byte buffer (the arena). A second direct buffer is an
+ * open-addressing hash table with linear probing. Each slot holds the recipe id and a reference to the name,
+ * which packs the arena offset (upper 40 bits) and the byte length (lower 24 bits). So the table costs a
+ * few primitive buffers instead of a {@code String} per recipe, and a lookup builds a single string.
+ * <p>
+ * Id 0 marks an empty slot and -1 a deleted one; both are never recipe ids. The name of a deleted recipe
+ * stays in the arena until the next import rebuilds the table. Like {@link NameFilter}, the table is loaded
+ * after every import or on first use. {@code createRecipe} and {@code deleteRecipe} update it after commit,
+ * also while a load is running, since its snapshot may predate the commit.
+ * <p>
+ * The hash table stays at most half full. If the names no longer fit ({@link #MAX_CAPACITY} slots or a 2 GB
+ * arena), the table is dropped and {@link #get} queries the names until the next import rebuilds it.
+ * Tests may use a smaller slot limit.
+ */
+@Component
+@Slf4j
+public class RecipeNameTable {
+
+    private static final long EMPTY = 0;
+    private static final long DELETED = -1;
+    private static final int SLOT_BYTES = 16;
+    private static final int LENGTH_BITS = 24;
+    /**
+     * Keeps {@code slot * SLOT_BYTES} within an int.
+     */
+    private static final int MAX_CAPACITY = 1 << 26;
+    private static final int MAX_ARENA = Integer.MAX_VALUE - 8;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Slot limit, a power of two of at least 1024.
+     */
+    private final int maxCapacity;
+
+    @Value("${sustc.recipe-names.off-heap:true}")
+    private boolean enabled;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private volatile boolean loaded;
+    /**
+     * Set when the names did not fit; the table is then empty and lookups go to the database.
+     */
+    private boolean full;
+
+    private ByteBuffer arena = ByteBuffer.allocateDirect(0);
+    private int arenaUsed;
+
+    private ByteBuffer slots = ByteBuffer.allocateDirect(0);
+    /**
+     * Number of slots, a power of two.
+     */
+    private int capacity;
+    /**
+     * Slots that are not empty, including deleted ones.
+     */
+    private int occupied;
+    private int deletedSlots;
+
+    public RecipeNameTable() {
+        this(MAX_CAPACITY);
+    }
+
+    RecipeNameTable(int maxCapacity) {
+        this.maxCapacity = maxCapacity;
+    }
+
+    /**
+     * @return whether names are served from this table; otherwise they are queried
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the name of the recipe, or {@code null} if there is none
+     */
+    public String get(long recipeId) {
+        if (recipeId <= 0) {
+            return null;
+        }
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            if (!full) {
+                int slot = find(recipeId);
+                if (slot < 0) {
+                    return null;
+                }
+                long ref = slots.getLong(slot * SLOT_BYTES + 8);
+                byte[] bytes = new byte[(int) (ref & ((1L << LENGTH_BITS) - 1))];
+                arena.get((int) (ref >>> LENGTH_BITS), bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        // 不持有锁查询，以免与等待写锁的提交线程争用连接
+        return queryName(recipeId);
+    }
+
+    /**
+     * Records the name of a new recipe once the current transaction commits.
+     */
+    public void recipeCreated(long recipeId, String name) {
+        if (!enabled) {
+            return;
+        }
+        // 即使尚未载入完成也要更新：载入读取的快照可能早于本次提交
+        TransactionHooks.afterCommit(() -> {
+            lock.writeLock().lock();
+            try {
+                put(recipeId, name);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    /**
+     * Forgets the recipe once the current transaction commits.
+     */
+    public void recipeDeleted(long recipeId) {
+        if (!enabled) {
+            return;
+        }
+        TransactionHooks.afterCommit(() -> {
+            lock.writeLock().lock();
+            try {
+                int slot = find(recipeId);
+                if (slot >= 0) {
+                    slots.putLong(slot * SLOT_BYTES, DELETED);
+                    deletedSlots++;
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    @EventListener
+    public synchronized void onDataImported(DataImportedEvent event) {
+        if (enabled) {
+            load();
+        }
+    }
+
+    private void ensureLoaded() {
+        if (!loaded) {
+            synchronized (this) {
+                if (!loaded) {
+                    load();
+                }
+            }
+        }
+    }
+
+    private void load() {
+        long start = System.currentTimeMillis();
+        Long recipes = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM recipes", Long.class);
+        long count = recipes == null ? 0 : recipes;
+        lock.writeLock().lock();
+        try {
+            full = false;
+            arena = ByteBuffer.allocateDirect((int) Math.min(MAX_ARENA, Math.max(1 << 16, count * 48)));
+            arenaUsed = 0;
+            // 装载因子不超过 1/2
+            capacity = Integer.highestOneBit((int) Math.max(1024, Math.min(maxCapacity, count * 2)) - 1) << 1;
+            slots = ByteBuffer.allocateDirect(capacity * SLOT_BYTES);
+            occupied = 0;
+            deletedSlots = 0;
+            jdbcTemplate.query("SELECT RecipeId, Name FROM recipes", rs -> {
+                put(rs.getLong(1), rs.getString(2));
+            });
+            loaded = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.debug("Loaded {} recipe names ({} bytes) in {} ms", count, arenaUsed, System.currentTimeMillis() - start);
+    }
+
+    private String queryName(long recipeId) {
+        List<String> names = jdbcTemplate.queryForList("SELECT Name FROM recipes WHERE RecipeId = ?", String.class, recipeId);
+        return names.isEmpty() ? null : names.get(0);
+    }
+
+    /**
+     * Drops the table once the names do not fit; the caller holds the write lock.
+     */
+    private void overflow() {
+        full = true;
+        arena = ByteBuffer.allocateDirect(0);
+        arenaUsed = 0;
+        slots = ByteBuffer.allocateDirect(0);
+        capacity = 0;
+        occupied = 0;
+        deletedSlots = 0;
+        log.warn("Recipe names do not fit into the off-heap table, querying them instead");
+    }
+
+    /**
+     * @return the slot holding the id, or -1
+     */
+    private int find(long recipeId) {
+        if (capacity == 0) {
+            return -1;
+        }
+        int mask = capacity - 1;
+        for (int slot = hash(recipeId) & mask; ; slot = (slot + 1) & mask) {
+            long key = slots.getLong(slot * SLOT_BYTES);
+            if (key == recipeId) {
+                return slot;
+            }
+            if (key == EMPTY) {
+                return -1;
+            }
+        }
+    }
+
+    private void put(long recipeId, String name) {
+        if (full) {
+            return;
+        }
+        byte[] bytes = (name == null ? "" : name).getBytes(StandardCharsets.UTF_8);
+        if (recipeId <= 0 || bytes.length >= 1 << LENGTH_BITS) {
+            return;
+        }
+        if ((long) arenaUsed + bytes.length > arena.capacity()) {
+            if ((long) arenaUsed + bytes.length > MAX_ARENA) {
+                overflow();
+                return;
+            }
+            long grown = Math.max((long) arena.capacity() * 2, (long) arenaUsed + bytes.length);
+            ByteBuffer larger = ByteBuffer.allocateDirect((int) Math.min(MAX_ARENA, grown));
+            larger.put(0, arena, 0, arenaUsed);
+            arena = larger;
+        }
+        int offset = arenaUsed;
+        arena.put(offset, bytes);
+        arenaUsed += bytes.length;
+        long ref = ((long) offset << LENGTH_BITS) | bytes.length;
+
+        int existing = find(recipeId);
+        if (existing >= 0) {
+            slots.putLong(existing * SLOT_BYTES + 8, ref);
+            return;
+        }
+        if ((occupied + 1) * 2L > capacity) {
+            // 删除标记较多时按原容量重建即可
+            boolean grow = (occupied - deletedSlots) * 4L > capacity;
+            rehash(Math.min(maxCapacity, Math.max(1024, grow ? capacity * 2 : capacity)));
+            if ((occupied + 1) * 2L > capacity) {
+                // 已达最大容量，继续插入会使探测找不到空槽
+                overflow();
+                return;
+            }
+        }
+        int mask = capacity - 1;
+        int slot = hash(recipeId) & mask;
+        while (true) {
+            long key = slots.getLong(slot * SLOT_BYTES);
+            if (key == EMPTY || key == DELETED) {
+                break;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (slots.getLong(slot * SLOT_BYTES) == EMPTY) {
+            occupied++;
+        } else {
+            deletedSlots--;
+        }
+        slots.putLong(slot * SLOT_BYTES, recipeId);
+        slots.putLong(slot * SLOT_BYTES + 8, ref);
+    }
+
+    /**
+     * Moves the live slots into a new table, dropping the deleted ones.
+     */
+    private void rehash(int newCapacity) {
+        ByteBuffer old = slots;
+        int oldCapacity = capacity;
+        slots = ByteBuffer.allocateDirect(newCapacity * SLOT_BYTES);
+        capacity = newCapacity;
+        occupied = 0;
+        deletedSlots = 0;
+        int mask = newCapacity - 1;
+        for (int i = 0; i < oldCapacity; i++) {
+            long key = old.getLong(i * SLOT_BYTES);
+            if (key == EMPTY || key == DELETED) {
+                continue;
+            }
+            int slot = hash(key) & mask;
+            while (slots.getLong(slot * SLOT_BYTES) != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            slots.putLong(slot * SLOT_BYTES, key);
+            slots.putLong(slot * SLOT_BYTES + 8, old.getLong(i * SLOT_BYTES + 8));
+            occupied++;
+        }
+    }
+
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
@@ -0,0 +1,499 @@
+package io.sustc.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntConsumer;
+
+/**
+ * In-memory index answering the filters and sort orders of {@code searchRecipes}, so only the recipes of
+ * the requested page are read from Postgres.
+ * <p>
+ * Recipes are numbered with dense ordinals. Per ordinal the index keeps the author, the sort keys and the
+ * lower-cased name and description; per category and per trigram of that text it keeps an
+ * {@link OrdinalSet}. A search intersects the sets of the category and of the keyword's trigrams, starting
+ * from the smallest, and checks each candidate against the text and the rating, which keeps the exact
+ * {@code ILIKE} semantics. The matches are counted for the total and the page is picked from them with a
+ * bounded heap in the requested order.
+ * <p>
+ * Only keywords of printable ASCII without {@code %}, {@code _} or {@code \} are answered here; for those,
+ * Java's and Postgres' case folding agree. Other searches, and all of them while the index is disabled, run
+ * in SQL.
+ * <p>
+ * The index is built after every import, or on first use. Writers report a changed recipe or a deleted
+ * author within their transaction; the index re-reads it from the table once the transaction commits. This
+ * also happens before the first load and waits for a running one, whose snapshot may predate the commit. The
+ * text of every recipe is held in memory, so enable the index only where the heap has room for it.
+ */
+@Component
+@Slf4j
+public class RecipeSearchIndex {
+
+    private static final String ROW_SQL = """
+            SELECT r.RecipeId, r.AuthorId, u.IsDeleted, r.Name, r.Description, r.RecipeCategory,
+                   r.AggregatedRating, r.DatePublished, r.Calories
+            FROM recipes r
+            JOIN users u ON u.AuthorId = r.AuthorId
+            """;
+
+    private static final int NULL_RATING = Integer.MIN_VALUE;
+    /**
+     * Sorts after every date in descending order, like {@code NULLS LAST}.
+     */
+    private static final long NULL_DATE = Long.MIN_VALUE;
+    /**
+     * Sorts after every amount in ascending order, like {@code NULLS LAST}.
+     */
+    private static final long NULL_CALORIES = Long.MAX_VALUE;
+
+    /**
+     * Separates name and description in the indexed text; no accepted keyword contains it.
+     */
+    private static final char SEPARATOR = '\0';
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${sustc.search.in-memory-index:false}")
+    private boolean enabled;
+
+    /**
+     * The recipe ids of one page, in order, and the number of matches.
+     */
+    public record Hits(long[] recipeIds, long total) {
+    }
+
+    private enum Sort {
+        RATING, DATE, CALORIES, ID;
+
+        static Sort of(String sort) {
+            return switch (sort == null ? "" : sort) {
+                case "rating_desc" -> RATING;
+                case "date_desc" -> DATE;
+                case "calories_asc" -> CALORIES;
+                default -> ID;
+            };
+        }
+    }
+
+    private record Row(long recipeId, long authorId, boolean live, String text, String category,
+                       int rating, long date, long calories) {
+    }
+
+    /**
+     * Growable list of matching ordinals.
+     */
+    private static final class Matches {
+        int[] ordinals = new int[64];
+        int count;
+
+        void add(int ordinal) {
+            if (count == ordinals.length) {
+                ordinals = Arrays.copyOf(ordinals, count * 2);
+            }
+            ordinals[count++] = ordinal;
+        }
+    }
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private volatile boolean loaded;
+
+    private int size;
+    private long[] recipeIds = new long[0];
+    private long[] authorIds = new long[0];
+    private String[] texts = new String[0];
+    /**
+     * Hundredths, as stored in {@code DECIMAL(3,2)}.
+     */
+    private int[] ratings = new int[0];
+    /**
+     * Microseconds since the epoch, with the timestamp read as UTC.
+     */
+    private long[] dates = new long[0];
+    /**
+     * Hundredths, as stored in {@code DECIMAL(10,2)}.
+     */
+    private long[] calories = new long[0];
+
+    /**
+     * Ordinals whose recipe exists and whose author is not deleted.
+     */
+    private BitSet live = new BitSet();
+    /**
+     * Ordinals of deleted recipes; their id may come back with a new ordinal.
+     */
+    private BitSet removed = new BitSet();
+    private Map<String, OrdinalSet> categories = new HashMap<>();
+    private Map<Long, OrdinalSet> trigrams = new HashMap<>();
+
+    /**
+     * Ordinals below this were loaded in recipe id order and are found by binary search, the others
+     * through {@link #appended}.
+     */
+    private int sortedPrefix;
+    private Map<Long, Integer> appended = new HashMap<>();
+
+    /**
+     * @return whether the search can be answered here; otherwise it has to run in SQL
+     */
+    public boolean supports(String keyword, Double minRating) {
+        if (!enabled || (minRating != null && minRating.isNaN())) {
+            return false;
+        }
+        if (!StringUtils.hasText(keyword)) {
+            return true;
+        }
+        String trimmed = keyword.trim();
+        for (int i = 0; i < trimmed.length(); i++) {
+            char c = trimmed.charAt(i);
+            if (c < 0x20 || c > 0x7e || c == '%' || c == '_' || c == '\\') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Runs a search that {@link #supports} accepted, normalized like {@code searchRecipes}: blank keyword
+     * and category mean no filter, both are trimmed.
+     *
+     * @param offset matches to skip in sort order
+     * @param limit  maximum number of recipe ids to return
+     */
+    public Hits search(String keyword, String category, Double minRating, String sort, long offset, int limit) {
+        ensureLoaded();
+        String needle = StringUtils.hasText(keyword) ? keyword.trim().toLowerCase(Locale.ROOT) : null;
+        String categoryName = StringUtils.hasText(category) ? category.trim() : null;
+        Sort order = Sort.of(sort);
+
+        lock.readLock().lock();
+        try {
+            List<OrdinalSet> filters = new ArrayList<>();
+            if (categoryName != null) {
+                OrdinalSet set = categories.get(categoryName);
+                if (set == null) {
+                    return new Hits(new long[0], 0);
+                }
+                filters.add(set);
+            }
+            if (needle != null) {
+                for (int i = 0; i + 3 <= needle.length(); i++) {
+                    OrdinalSet set = trigrams.get(trigram(needle, i));
+                    if (set == null) {
+                        return new Hits(new long[0], 0);
+                    }
+                    if (!filters.contains(set)) {
+                        filters.add(set);
+                    }
+                }
+            }
+            // 从最小的集合出发，其余集合只做成员检查
+            filters.sort((a, b) -> Long.compare(a.cardinality(), b.cardinality()));
+
+            Matches matches = new Matches();
+            IntConsumer check = ord -> {
+                if (!live.get(ord)) {
+                    return;
+                }
+                for (int i = 1; i < filters.size(); i++) {
+                    if (!filters.get(i).contains(ord)) {
+                        return;
+                    }
+                }
+                // 与 SQL 中 numeric >= double precision 一样按 double 比较
+                if (minRating != null && (ratings[ord] == NULL_RATING || ratings[ord] / 100.0 < minRating)) {
+                    return;
+                }
+                if (needle != null && !texts[ord].contains(needle)) {
+                    return;
+                }
+                matches.add(ord);
+            };
+            if (filters.isEmpty()) {
+                for (int ord = live.nextSetBit(0); ord >= 0; ord = live.nextSetBit(ord + 1)) {
+                    check.accept(ord);
+                }
+            } else {
+                filters.get(0).forEach(check);
+            }
+
+            int total = matches.count;
+            if (offset >= total || limit <= 0) {
+                return new Hits(new long[0], total);
+            }
+            int end = (int) Math.min(total, offset + limit);
+            int[] top = topK(matches.ordinals, total, end, order);
+            long[] ids = new long[end - (int) offset];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = recipeIds[top[(int) offset + i]];
+            }
+            return new Hits(ids, total);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Re-reads the recipe once the current transaction commits: adds it if it is new, drops it if it is
+     * gone, and takes over its rating otherwise.
+     */
+    public void recipeChanged(long recipeId) {
+        if (enabled) {
+            TransactionHooks.afterCommit(() -> refresh(recipeId));
+        }
+    }
+
+    /**
+     * Drops the recipes of the author once the current transaction commits.
+     */
+    public void authorDeleted(long authorId) {
+        if (!enabled) {
+            return;
+        }
+        TransactionHooks.afterCommit(() -> {
+            lock.writeLock().lock();
+            try {
+                for (int ord = 0; ord < size; ord++) {
+                    if (authorIds[ord] == authorId) {
+                        live.clear(ord);
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    @EventListener
+    public synchronized void onDataImported(DataImportedEvent event) {
+        if (enabled) {
+            load();
+        }
+    }
+
+    private void ensureLoaded() {
+        if (!loaded) {
+            synchronized (this) {
+                if (!loaded) {
+                    load();
+                }
+            }
+        }
+    }
+
+    private void load() {
+        long start = System.currentTimeMillis();
+        lock.writeLock().lock();
+        try {
+            size = 0;
+            recipeIds = new long[0];
+            authorIds = new long[0];
+            texts = new String[0];
+            ratings = new int[0];
+            dates = new long[0];
+            calories = new long[0];
+            live = new BitSet();
+            removed = new BitSet();
+            categories = new HashMap<>();
+            trigrams = new HashMap<>();
+            appended = new HashMap<>();
+            jdbcTemplate.query(ROW_SQL + " ORDER BY r.RecipeId", rs -> {
+                add(mapRow(rs));
+            });
+            sortedPrefix = size;
+            loaded = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.debug("Indexed {} recipes with {} trigrams in {} ms", size, trigrams.size(), System.currentTimeMillis() - start);
+    }
+
+    private void refresh(long recipeId) {
+        // 持有写锁读取，多个提交的刷新按顺序进行，最后一次读到的总是最新状态。
+        // 不论是否已载入都要执行：正在进行的载入可能在本次提交之前就已读过这一行，等它完成后再更新
+        lock.writeLock().lock();
+        try {
+            List<Row> rows = jdbcTemplate.query(ROW_SQL + " WHERE r.RecipeId = ?", (rs, rowNum) -> mapRow(rs), recipeId);
+            int ord = ordinalOf(recipeId);
+            if (rows.isEmpty()) {
+                if (ord >= 0) {
+                    live.clear(ord);
+                    removed.set(ord);
+                    appended.remove(recipeId);
+                    texts[ord] = "";
+                }
+            } else if (ord >= 0) {
+                ratings[ord] = rows.get(0).rating();
+                if (!rows.get(0).live()) {
+                    live.clear(ord);
+                }
+            } else {
+                appended.put(recipeId, add(rows.get(0)));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private int add(Row row) {
+        if (size == recipeIds.length) {
+            int capacity = Math.max(1024, size * 2);
+            recipeIds = Arrays.copyOf(recipeIds, capacity);
+            authorIds = Arrays.copyOf(authorIds, capacity);
+            texts = Arrays.copyOf(texts, capacity);
+            ratings = Arrays.copyOf(ratings, capacity);
+            dates = Arrays.copyOf(dates, capacity);
+            calories = Arrays.copyOf(calories, capacity);
+        }
+        int ord = size++;
+        recipeIds[ord] = row.recipeId();
+        authorIds[ord] = row.authorId();
+        texts[ord] = row.text();
+        ratings[ord] = row.rating();
+        dates[ord] = row.date();
+        calories[ord] = row.calories();
+        if (row.live()) {
+            live.set(ord);
+        }
+        if (row.category() != null) {
+            categories.computeIfAbsent(row.category(), k -> new OrdinalSet()).add(ord);
+        }
+        String text = row.text();
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            if (text.charAt(i) != SEPARATOR && text.charAt(i + 1) != SEPARATOR && text.charAt(i + 2) != SEPARATOR) {
+                trigrams.computeIfAbsent(trigram(text, i), k -> new OrdinalSet()).add(ord);
+            }
+        }
+        return ord;
+    }
+
+    /**
+     * @return the ordinal of the recipe, or -1 if it is not indexed
+     */
+    private int ordinalOf(long recipeId) {
+        Integer ord = appended.get(recipeId);
+        if (ord != null) {
+            return ord;
+        }
+        int i = Arrays.binarySearch(recipeIds, 0, sortedPrefix, recipeId);
+        return i >= 0 && !removed.get(i) ? i : -1;
+    }
+
+    /**
+     * @return the first {@code k} of the {@code count} ordinals in sort order
+     */
+    private int[] topK(int[] ordinals, int count, int k, Sort order) {
+        // 大顶堆保存当前最好的 k 个，堆顶是其中最差的
+        int[] heap = new int[k];
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            int ord = ordinals[i];
+            if (n < k) {
+                heap[n] = ord;
+                siftUp(heap, n++, order);
+            } else if (compare(ord, heap[0], order) < 0) {
+                heap[0] = ord;
+                siftDown(heap, 0, n, order);
+            }
+        }
+        for (int last = n - 1; last > 0; last--) {
+            int worst = heap[0];
+            heap[0] = heap[last];
+            heap[last] = worst;
+            siftDown(heap, 0, last, order);
+        }
+        return heap;
+    }
+
+    private void siftUp(int[] heap, int i, Sort order) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (compare(heap[i], heap[parent], order) <= 0) {
+                return;
+            }
+            int t = heap[i];
+            heap[i] = heap[parent];
+            heap[parent] = t;
+            i = parent;
+        }
+    }
+
+    private void siftDown(int[] heap, int i, int n, Sort order) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= n) {
+                return;
+            }
+            if (child + 1 < n && compare(heap[child + 1], heap[child], order) > 0) {
+                child++;
+            }
+            if (compare(heap[child], heap[i], order) <= 0) {
+                return;
+            }
+            int t = heap[i];
+            heap[i] = heap[child];
+            heap[child] = t;
+            i = child;
+        }
+    }
+
+    /**
+     * Compares like the ORDER BY of {@link RecipeServiceImpl#searchKeyset}; the null sentinels sort last.
+     */
+    private int compare(int a, int b, Sort order) {
+        int c = switch (order) {
+            case RATING -> {
+                int byRating = Integer.compare(ratings[b], ratings[a]);
+                yield byRating != 0 ? byRating : Long.compare(dates[b], dates[a]);
+            }
+            case DATE -> Long.compare(dates[b], dates[a]);
+            case CALORIES -> Long.compare(calories[a], calories[b]);
+            case ID -> 0;
+        };
+        return c != 0 ? c : Long.compare(recipeIds[a], recipeIds[b]);
+    }
+
+    private static long trigram(String text, int i) {
+        return ((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16) | text.charAt(i + 2);
+    }
+
+    private static Row mapRow(ResultSet rs) throws SQLException {
+        String name = rs.getString("Name");
+        String description = rs.getString("Description");
+        String text = (name == null ? "" : name.toLowerCase(Locale.ROOT)) + SEPARATOR
+                + (description == null ? "" : description.toLowerCase(Locale.ROOT));
+        BigDecimal rating = rs.getBigDecimal("AggregatedRating");
+        LocalDateTime date = rs.getObject("DatePublished", LocalDateTime.class);
+        BigDecimal amount = rs.getBigDecimal("Calories");
+        return new Row(
+                rs.getLong("RecipeId"),
+                rs.getLong("AuthorId"),
+                !rs.getBoolean("IsDeleted"),
+                text,
+                rs.getString("RecipeCategory"),
+                rating == null ? NULL_RATING : rating.movePointRight(2).intValue(),
+                date == null ? NULL_DATE : date.toEpochSecond(ZoneOffset.UTC) * 1_000_000 + date.getNano() / 1000,
+                amount == null ? NULL_CALORIES : amount.movePointRight(2).longValue()
+        );
+    }
+}
@@ -1,6 +1,7 @@
 package io.sustc.service.impl;
 
 import io.sustc.dto.*;
+import io.sustc.service.RecipeKeysetService;
 import io.sustc.service.RecipeService;
 import io.sustc.service.UserService;
 import lombok.extern.slf4j.Slf4j;
@@ -21,38 +22,41 @@ import java.util.*;
 
 @Service
 @Slf4j
-public class RecipeServiceImpl implements RecipeService {
+public class RecipeServiceImpl implements RecipeService, RecipeKeysetService {
 
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private ActiveUserGuard activeUserGuard;
+
     @Autowired
     private DataSource dataSource;
 
+    @Autowired
+    private MaterializedFeed materializedFeed;
 
-    @Override
-    public String getNameFromID(long id) {
-        if (id <= 0) {
-            return null;
-        }
-        try {
-            return jdbcTemplate.queryForObject(
-                    "SELECT Name FROM recipes WHERE RecipeId = ?",
-                    String.class,
-                    id
-            );
-        } catch (EmptyResultDataAccessException e) {
-            return null;
-        }
-    }
+    @Autowired
+    private TotalsCache totalsCache;
 
-    @Override
-    public RecipeRecord getRecipeById(long recipeId) {
-        if (recipeId <= 0) {
-            throw new IllegalArgumentException("recipeId must be positive");
-        }
+    @Autowired
+    private RecipeSearchIndex recipeSearchIndex;
+
+    @Autowired
+    private SearchResultCache searchResultCache;
+
+    @Autowired
+    private RecipeCache recipeCache;
+
+    @Autowired
+    private RecipeNameTable recipeNameTable;
 
-        final String sql = """
+
+    /**
+     * Full {@link RecipeRecord} projection shared by {@link #getRecipeById} and {@link #searchRecipes};
+     * callers append the WHERE clause. Aliases: {@code r} recipes, {@code u} author.
+     */
+    static final String RECIPE_SELECT = """
                 SELECT r.RecipeId,
                        r.Name,
                        r.AuthorId,
@@ -84,16 +88,44 @@ public class RecipeServiceImpl implements RecipeService {
                     FROM recipe_ingredients
                     WHERE RecipeId = r.RecipeId
                 ) ri ON true
-                WHERE r.RecipeId = ?
                 """;
 
+    @Override
+    public String getNameFromID(long id) {
+        if (id <= 0) {
+            return null;
+        }
+        if (recipeNameTable.isEnabled()) {
+            return recipeNameTable.get(id);
+        }
         try {
-            return jdbcTemplate.queryForObject(sql, (rs, rowNum) -> mapRecipeRecord(rs), recipeId);
+            return jdbcTemplate.queryForObject(
+                    "SELECT Name FROM recipes WHERE RecipeId = ?",
+                    String.class,
+                    id
+            );
         } catch (EmptyResultDataAccessException e) {
             return null;
         }
     }
 
+    @Override
+    public RecipeRecord getRecipeById(long recipeId) {
+        if (recipeId <= 0) {
+            throw new IllegalArgumentException("recipeId must be positive");
+        }
+
+        final String sql = RECIPE_SELECT + " WHERE r.RecipeId = ?";
+
+        return recipeCache.get(recipeId, id -> {
+            try {
+                return jdbcTemplate.queryForObject(sql, (rs, rowNum) -> mapRecipeRecord(rs), id);
+            } catch (EmptyResultDataAccessException e) {
+                return null;
+            }
+        });
+    }
+
 
     @Override
     public PageResult<RecipeRecord> searchRecipes(String keyword, String category, Double minRating,
@@ -102,8 +134,97 @@ public class RecipeServiceImpl implements RecipeService {
             throw new IllegalArgumentException("page must be >= 1 and size must be > 0");
         }
 
-        StringBuilder where = new StringBuilder(" WHERE u.IsDeleted = FALSE ");
+        // 与 searchWhere 的归一化一致：空白关键字/分类视为未指定，未知排序等同于按 id
+        List<Object> key = Arrays.asList(
+                StringUtils.hasText(keyword) ? keyword.trim() : null,
+                StringUtils.hasText(category) ? category.trim() : null,
+                minRating,
+                searchKeyset(sort),
+                page,
+                size
+        );
+        return searchResultCache.get(key, () -> searchPage(keyword, category, minRating, page, size, sort));
+    }
+
+    private PageResult<RecipeRecord> searchPage(String keyword, String category, Double minRating,
+                                                int page, int size, String sort) {
+        if (recipeSearchIndex.supports(keyword, minRating)) {
+            // 过滤、计数与排序在内存中完成，只从数据库读取这一页
+            RecipeSearchIndex.Hits hits = recipeSearchIndex.search(keyword, category, minRating, sort,
+                    (long) (page - 1) * size, size);
+            return PageResult.<RecipeRecord>builder()
+                    .items(recipesInOrder(hits.recipeIds()))
+                    .page(page)
+                    .size(size)
+                    .total(hits.total())
+                    .build();
+        }
+
         List<Object> params = new ArrayList<>();
+        String where = searchWhere(keyword, category, minRating, params);
+        String orderBy = searchOrderBy(sort);
+
+        long total = countSearch(keyword, category, minRating, where, params);
+
+        int offset = (page - 1) * size;
+        List<Object> pageParams = new ArrayList<>(params);
+        pageParams.add(size);
+        pageParams.add(offset);
+
+        List<RecipeRecord> items = jdbcTemplate.query(
+                RECIPE_SELECT + where + orderBy + " LIMIT ? OFFSET ? ",
+                (rs, rowNum) -> mapRecipeRecord(rs),
+                pageParams.toArray()
+        );
+
+        return PageResult.<RecipeRecord>builder()
+                .items(items)
+                .page(page)
+                .size(size)
+                .total(total)
+                .build();
+    }
+
+    @Override
+    public PageResult<RecipeRecord> searchRecipesAfter(String keyword, String category, Double minRating,
+                                                       String cursor, Integer size, String sort) {
+        if (size == null || size <= 0) {
+            throw new IllegalArgumentException("size must be > 0");
+        }
+
+        List<Object> params = new ArrayList<>();
+        String where = searchWhere(keyword, category, minRating, params);
+        // 总数只在第一页计算
+        long total = cursor == null ? countSearch(keyword, category, minRating, where, params) : -1;
+
+        return searchKeyset(sort).fetch(jdbcTemplate, RECIPE_SELECT, where, params, cursor, size, total,
+                (rs, rowNum) -> mapRecipeRecord(rs));
+    }
+
+    /**
+     * Reads the recipes with the given ids, in that order; ids whose recipe is gone are skipped.
+     */
+    private List<RecipeRecord> recipesInOrder(long[] recipeIds) {
+        if (recipeIds.length == 0) {
+            return new ArrayList<>();
+        }
+        Map<Long, RecipeRecord> byId = new HashMap<>();
+        jdbcTemplate.query(RECIPE_SELECT + " WHERE r.RecipeId = ANY(?)", rs -> {
+            RecipeRecord recipe = mapRecipeRecord(rs);
+            byId.put(recipe.getRecipeId(), recipe);
+        }, (Object) recipeIds);
+        List<RecipeRecord> items = new ArrayList<>(recipeIds.length);
+        for (long id : recipeIds) {
+            RecipeRecord recipe = byId.get(id);
+            if (recipe != null) {
+                items.add(recipe);
+            }
+        }
+        return items;
+    }
+
+    private String searchWhere(String keyword, String category, Double minRating, List<Object> params) {
+        StringBuilder where = new StringBuilder(" WHERE u.IsDeleted = FALSE ");
 
         if (StringUtils.hasText(keyword)) {
             where.append(" AND (r.Name ILIKE ? OR r.Description ILIKE ?) ");
@@ -119,71 +240,50 @@ public class RecipeServiceImpl implements RecipeService {
             where.append(" AND r.AggregatedRating >= ? ");
             params.add(minRating);
         }
+        return where.toString();
+    }
 
-        String orderBy = switch (sort == null ? "" : sort) {
-            case "rating_desc" -> " ORDER BY r.AggregatedRating DESC NULLS LAST, r.DatePublished DESC NULLS LAST, r.RecipeId ASC ";
-            case "date_desc" -> " ORDER BY r.DatePublished DESC NULLS LAST, r.RecipeId ASC ";
-            case "calories_asc" -> " ORDER BY r.Calories ASC NULLS LAST, r.RecipeId ASC ";
-            default -> " ORDER BY r.RecipeId ASC ";
-        };
-
-        long total = jdbcTemplate.queryForObject(
+    private long countSearch(String keyword, String category, Double minRating, String where, List<Object> params) {
+        // 缓存键与 searchWhere 的归一化一致：空白关键字/分类视为未指定
+        List<Object> filter = Arrays.asList(
+                StringUtils.hasText(keyword) ? keyword.trim() : null,
+                StringUtils.hasText(category) ? category.trim() : null,
+                minRating
+        );
+        return totalsCache.count(TotalsCache.Query.SEARCH, filter,
                 "SELECT COUNT(*) FROM recipes r JOIN users u ON u.AuthorId = r.AuthorId " + where,
-                Long.class,
                 params.toArray()
         );
+    }
 
-        int offset = (page - 1) * size;
-        List<Object> pageParams = new ArrayList<>(params);
-        pageParams.add(size);
-        pageParams.add(offset);
-
-        final String sql = """
-                SELECT r.RecipeId,
-                       r.Name,
-                       r.AuthorId,
-                       u.AuthorName,
-                       r.CookTime,
-                       r.PrepTime,
-                       r.TotalTime,
-                       r.DatePublished,
-                       r.Description,
-                       r.RecipeCategory,
-                       COALESCE(ri.parts, ARRAY[]::text[]) AS RecipeIngredientParts,
-                       r.AggregatedRating,
-                       r.ReviewCount,
-                       r.Calories,
-                       r.FatContent,
-                       r.SaturatedFatContent,
-                       r.CholesterolContent,
-                       r.SodiumContent,
-                       r.CarbohydrateContent,
-                       r.FiberContent,
-                       r.SugarContent,
-                       r.ProteinContent,
-                       r.RecipeServings,
-                       r.RecipeYield
-                FROM recipes r
-                JOIN users u ON u.AuthorId = r.AuthorId
-                LEFT JOIN LATERAL (
-                    SELECT array_agg(IngredientPart ORDER BY lower(IngredientPart), IngredientPart) AS parts
-                    FROM recipe_ingredients
-                    WHERE RecipeId = r.RecipeId
-                ) ri ON true
-                """;
-
-        List<RecipeRecord> items = jdbcTemplate.query(
-                sql + where + orderBy + " LIMIT ? OFFSET ? ",
-                (rs, rowNum) -> mapRecipeRecord(rs),
-                pageParams.toArray()
-        );
+    private static final Keyset.Key RECIPE_ID_KEY = new Keyset.Key("r.RecipeId", "RecipeId", false, Keyset.Nulls.NONE);
+
+    private static final Keyset SEARCH_BY_RATING = new Keyset("rating_desc",
+            new Keyset.Key("r.AggregatedRating", "AggregatedRating", true, Keyset.Nulls.LAST),
+            new Keyset.Key("r.DatePublished", "DatePublished", true, Keyset.Nulls.LAST),
+            RECIPE_ID_KEY);
+    private static final Keyset SEARCH_BY_DATE = new Keyset("date_desc",
+            new Keyset.Key("r.DatePublished", "DatePublished", true, Keyset.Nulls.LAST),
+            RECIPE_ID_KEY);
+    private static final Keyset SEARCH_BY_CALORIES = new Keyset("calories_asc",
+            new Keyset.Key("r.Calories", "Calories", false, Keyset.Nulls.LAST),
+            RECIPE_ID_KEY);
+    private static final Keyset SEARCH_BY_ID = new Keyset("id", RECIPE_ID_KEY);
+
+    /**
+     * Sort order of {@link #searchRecipes}; each variant is matched by an index in {@link IndexManager}.
+     */
+    static Keyset searchKeyset(String sort) {
+        return switch (sort == null ? "" : sort) {
+            case "rating_desc" -> SEARCH_BY_RATING;
+            case "date_desc" -> SEARCH_BY_DATE;
+            case "calories_asc" -> SEARCH_BY_CALORIES;
+            default -> SEARCH_BY_ID;
+        };
+    }
 
-        return PageResult.<RecipeRecord>builder()
-                .items(items)
-                .page(page)
-                .size(size)
-                .total(total)
-                .build();
+    static String searchOrderBy(String sort) {
+        return searchKeyset(sort).orderBy();
     }
 
     @Override
@@ -289,6 +389,14 @@ public class RecipeServiceImpl implements RecipeService {
             }
         }
 
+        // 推送到关注者的时间线
+        materializedFeed.recipePublished(recipeId, auth.getAuthorId(), dto.getDatePublished(), dto.getRecipeCategory());
+        totalsCache.invalidate(TotalsCache.Table.RECIPES);
+        recipeSearchIndex.recipeChanged(recipeId);
+        searchResultCache.invalidate();
+        recipeCache.invalidate(recipeId);
+        recipeNameTable.recipeCreated(recipeId, dto.getName().trim());
+
         return recipeId;
     }
 
@@ -315,7 +423,13 @@ public class RecipeServiceImpl implements RecipeService {
         );
         jdbcTemplate.update("DELETE FROM reviews WHERE RecipeId = ?", recipeId);
         jdbcTemplate.update("DELETE FROM recipe_ingredients WHERE RecipeId = ?", recipeId);
+        materializedFeed.recipeDeleted(recipeId);
         jdbcTemplate.update("DELETE FROM recipes WHERE RecipeId = ?", recipeId);
+        totalsCache.invalidate(TotalsCache.Table.RECIPES, TotalsCache.Table.REVIEWS);
+        recipeSearchIndex.recipeChanged(recipeId);
+        searchResultCache.invalidate();
+        recipeCache.invalidate(recipeId);
+        recipeNameTable.recipeDeleted(recipeId);
 
     }
 
@@ -379,11 +493,11 @@ public class RecipeServiceImpl implements RecipeService {
                 totalIso,
                 recipeId
         );
+        searchResultCache.invalidate();
+        recipeCache.invalidate(recipeId);
     }
 
-    @Override
-    public Map<String, Object> getClosestCaloriePair() {
-        final String sql = """
+    static final String CLOSEST_CALORIE_PAIR_SQL = """
                 WITH ordered AS (
                     SELECT RecipeId,
                            Calories::double precision AS cal,
@@ -403,16 +517,16 @@ public class RecipeServiceImpl implements RecipeService {
                 LIMIT 1
                 """;
 
-        List<Map<String, Object>> rows = jdbcTemplate.queryForList(sql);
+    @Override
+    public Map<String, Object> getClosestCaloriePair() {
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(CLOSEST_CALORIE_PAIR_SQL);
         if (rows.isEmpty()) {
             return null;
         }
         return rows.get(0);
     }
 
-    @Override
-    public List<Map<String, Object>> getTop3MostComplexRecipesByIngredients() {
-        final String sql = """
+    static final String TOP3_COMPLEX_SQL = """
                 SELECT r.RecipeId AS "RecipeId",
                        r.Name AS "Name",
                        COUNT(*)::int AS "IngredientCount"
@@ -422,25 +536,22 @@ public class RecipeServiceImpl implements RecipeService {
                 ORDER BY COUNT(*) DESC, r.RecipeId ASC
                 LIMIT 3
                 """;
-        return jdbcTemplate.queryForList(sql);
+
+    @Override
+    public List<Map<String, Object>> getTop3MostComplexRecipesByIngredients() {
+        return jdbcTemplate.queryForList(TOP3_COMPLEX_SQL);
     }
 
     private void assertActiveUser(AuthInfo auth) {
         if (auth == null || auth.getAuthorId() <= 0) {
             throw new SecurityException("invalid auth");
         }
-        try {
-            Boolean deleted = jdbcTemplate.queryForObject(
-                    "SELECT IsDeleted FROM users WHERE AuthorId = ?",
-                    Boolean.class,
-                    auth.getAuthorId()
-            );
-            if (Boolean.TRUE.equals(deleted)) {
-                throw new SecurityException("user is deleted");
-            }
-        } catch (EmptyResultDataAccessException e) {
+        if (!activeUserGuard.exists(auth.getAuthorId())) {
             throw new SecurityException("user not found");
         }
+        if (!activeUserGuard.isActive(auth.getAuthorId())) {
+            throw new SecurityException("user is deleted");
+        }
     }
 
     private static Duration parseDurationStrict(String iso) {
@@ -5,6 +5,7 @@ import io.sustc.dto.PageResult;
 import io.sustc.dto.RecipeRecord;
 import io.sustc.dto.ReviewRecord;
 import io.sustc.service.RecipeService;
+import io.sustc.service.ReviewKeysetService;
 import io.sustc.service.ReviewService;
 import io.sustc.service.UserService;
 import lombok.extern.slf4j.Slf4j;
@@ -19,7 +20,7 @@ import java.util.Map;
 
 @Service
 @Slf4j
-public class ReviewServiceImpl implements ReviewService {
+public class ReviewServiceImpl implements ReviewService, ReviewKeysetService {
 
 
     @Autowired
@@ -31,6 +32,24 @@ public class ReviewServiceImpl implements ReviewService {
     @Autowired
     private RecipeService recipeService;
 
+    @Autowired
+    private IdAllocator idAllocator;
+
+    @Autowired
+    private ActiveUserGuard activeUserGuard;
+
+    @Autowired
+    private TotalsCache totalsCache;
+
+    @Autowired
+    private RecipeSearchIndex recipeSearchIndex;
+
+    @Autowired
+    private SearchResultCache searchResultCache;
+
+    @Autowired
+    private RecipeCache recipeCache;
+
     @Override
     @Transactional
     public long addReview(AuthInfo auth, long recipeId, int rating, String review) {
@@ -45,17 +64,8 @@ public class ReviewServiceImpl implements ReviewService {
 
         // 检查用户是否有效且活跃
         long userId = auth.getAuthorId();
-        try {
-            Boolean isDeleted = jdbcTemplate.queryForObject(
-                "SELECT IsDeleted FROM users WHERE AuthorId = ?",
-                Boolean.class,
-                userId
-            );
-            if (isDeleted == null || isDeleted) {
-                throw new SecurityException("User is inactive or does not exist");
-            }
-        } catch (EmptyResultDataAccessException e) {
-            throw new SecurityException("User does not exist");
+        if (!activeUserGuard.isActive(userId)) {
+            throw new SecurityException("User is inactive or does not exist");
         }
 
         // 检查食谱是否存在且未被删除
@@ -64,16 +74,8 @@ public class ReviewServiceImpl implements ReviewService {
             throw new IllegalArgumentException("Recipe does not exist");
         }
 
-        // 生成新的ReviewId - 使用数据库序列生成
-        Long newReviewId;
-        try {
-            newReviewId = jdbcTemplate.queryForObject(
-                "SELECT COALESCE(MAX(ReviewId), 0) + 1 FROM reviews",
-                Long.class
-            );
-        } catch (Exception e) {
-            newReviewId = 1L;
-        }
+        // 生成新的ReviewId - 从序列中按块预取
+        long newReviewId = idAllocator.nextReviewId();
         java.sql.Timestamp now = new java.sql.Timestamp(System.currentTimeMillis());
 
         // 插入新的评论
@@ -108,17 +110,8 @@ public class ReviewServiceImpl implements ReviewService {
 
         // 检查用户是否有效且活跃
         long userId = auth.getAuthorId();
-        try {
-            Boolean isDeleted = jdbcTemplate.queryForObject(
-                "SELECT IsDeleted FROM users WHERE AuthorId = ?",
-                Boolean.class,
-                userId
-            );
-            if (isDeleted == null || isDeleted) {
-                throw new SecurityException("User is inactive or does not exist");
-            }
-        } catch (EmptyResultDataAccessException e) {
-            throw new SecurityException("User does not exist");
+        if (!activeUserGuard.isActive(userId)) {
+            throw new SecurityException("User is inactive or does not exist");
         }
 
         // 检查评论是否存在，并且属于指定的食谱
@@ -172,17 +165,8 @@ public class ReviewServiceImpl implements ReviewService {
 
         // 检查用户是否有效且活跃
         long userId = auth.getAuthorId();
-        try {
-            Boolean isDeleted = jdbcTemplate.queryForObject(
-                "SELECT IsDeleted FROM users WHERE AuthorId = ?",
-                Boolean.class,
-                userId
-            );
-            if (isDeleted == null || isDeleted) {
-                throw new SecurityException("User is inactive or does not exist");
-            }
-        } catch (EmptyResultDataAccessException e) {
-            throw new SecurityException("User does not exist");
+        if (!activeUserGuard.isActive(userId)) {
+            throw new SecurityException("User is inactive or does not exist");
         }
 
         // 检查评论是否存在，并且属于指定的食谱
@@ -397,29 +381,12 @@ public class ReviewServiceImpl implements ReviewService {
             throw new IllegalArgumentException("Recipe does not exist");
         }
 
-        // 构建排序子句
-        String orderBy = switch (sort == null ? "" : sort) {
-            case "date_desc" -> " ORDER BY r.DateModified DESC ";
-            case "likes_desc" -> " ORDER BY LikeCount DESC ";
-            default -> " ORDER BY r.DateModified DESC "; // 默认按时间倒序
-        };
-
         // 查询总数（不过滤已删除用户的评论）
-        String countSql = "SELECT COUNT(*) FROM reviews r WHERE r.RecipeId = ? AND r.Review IS NOT NULL";
-        Long total = jdbcTemplate.queryForObject(countSql, Long.class, recipeId);
-        if (total == null) total = 0L;
+        long total = countReviews(recipeId);
 
         // 查询数据（移除 u.IsDeleted 的过滤条件，允许显示已删除用户的评论）
-        String sql = "SELECT r.*, COALESCE(rl.LikeCount, 0) AS LikeCount, u.AuthorName " +
-                     "FROM reviews r " +
-                     "LEFT JOIN (SELECT ReviewId, COUNT(*) AS LikeCount FROM review_likes GROUP BY ReviewId) rl ON r.ReviewId = rl.ReviewId " +
-                     "LEFT JOIN users u ON r.AuthorId = u.AuthorId " +
-                     "WHERE r.RecipeId = ? AND r.Review IS NOT NULL " +
-                     orderBy +
-                     "LIMIT ? OFFSET ?";
-
         int offset = (page - 1) * size;
-        List<ReviewRecord> items = jdbcTemplate.query(sql, reviewRowMapper, recipeId, size, offset);
+        List<ReviewRecord> items = jdbcTemplate.query(listByRecipeSql(sort), reviewRowMapper, recipeId, size, offset);
 
         return PageResult.<ReviewRecord>builder()
                 .items(items)
@@ -429,6 +396,73 @@ public class ReviewServiceImpl implements ReviewService {
                 .build();
     }
 
+    @Override
+    public PageResult<ReviewRecord> listByRecipeAfter(long recipeId, String cursor, int size, String sort) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Size must be positive");
+        }
+
+        // 检查食谱是否存在
+        RecipeRecord recipe = recipeService.getRecipeById(recipeId);
+        if (recipe == null) {
+            throw new IllegalArgumentException("Recipe does not exist");
+        }
+
+        // 总数只在第一页计算
+        long total = cursor == null ? countReviews(recipeId) : -1;
+
+        return reviewKeyset(sort).fetch(jdbcTemplate, REVIEW_SELECT, LIST_BY_RECIPE_WHERE,
+                List.of(recipeId), cursor, size, total, reviewRowMapper);
+    }
+
+    private long countReviews(long recipeId) {
+        return totalsCache.count(TotalsCache.Query.REVIEWS, List.of(recipeId),
+                "SELECT COUNT(*) FROM reviews r WHERE r.RecipeId = ? AND r.Review IS NOT NULL", recipeId);
+    }
+
+    /**
+     * Like counts are looked up per review through the review_likes primary key instead of aggregating
+     * the whole table.
+     */
+    static final String REVIEW_SELECT = "SELECT r.*, " +
+            "(SELECT COUNT(*) FROM review_likes rl WHERE rl.ReviewId = r.ReviewId) AS LikeCount, u.AuthorName " +
+            "FROM reviews r " +
+            "LEFT JOIN users u ON r.AuthorId = u.AuthorId ";
+
+    /**
+     * Filter of {@link #listByRecipe} and {@link #listByRecipeAfter}; the parameter is the recipe.
+     */
+    static final String LIST_BY_RECIPE_WHERE = " WHERE r.RecipeId = ? AND r.Review IS NOT NULL ";
+
+    private static final Keyset.Key REVIEW_ID_KEY = new Keyset.Key("r.ReviewId", "ReviewId", false, Keyset.Nulls.NONE);
+
+    private static final Keyset BY_DATE = new Keyset("date_desc",
+            new Keyset.Key("r.DateModified", "DateModified", true, Keyset.Nulls.FIRST),
+            REVIEW_ID_KEY);
+    private static final Keyset BY_LIKES = new Keyset("likes_desc",
+            new Keyset.Key("(SELECT COUNT(*) FROM review_likes rl WHERE rl.ReviewId = r.ReviewId)", "LikeCount", true, Keyset.Nulls.NONE),
+            REVIEW_ID_KEY);
+
+    /**
+     * Sort order of {@link #listByRecipe}; ties are broken by review id so the order is total.
+     */
+    static Keyset reviewKeyset(String sort) {
+        return switch (sort == null ? "" : sort) {
+            case "likes_desc" -> BY_LIKES;
+            default -> BY_DATE; // 默认按时间倒序
+        };
+    }
+
+    /**
+     * Page query of {@link #listByRecipe}.
+     */
+    static String listByRecipeSql(String sort) {
+        return REVIEW_SELECT +
+                LIST_BY_RECIPE_WHERE +
+                reviewKeyset(sort).orderBy() +
+                "LIMIT ? OFFSET ?";
+    }
+
     @Override
     @Transactional
     public RecipeRecord refreshRecipeAggregatedRating(long recipeId) {
@@ -465,6 +499,12 @@ public class ReviewServiceImpl implements ReviewService {
             );
         }
         
+        // 评论数和评分都可能改变了分页总数
+        totalsCache.invalidate(TotalsCache.Table.REVIEWS, TotalsCache.Table.RECIPES);
+        recipeSearchIndex.recipeChanged(recipeId);
+        searchResultCache.invalidate();
+        recipeCache.invalidate(recipeId);
+
         // 返回更新后的食谱记录
         return recipeService.getRecipeById(recipeId);
     }
@@ -0,0 +1,139 @@
+package io.sustc.service.impl;
+
+import io.sustc.dto.PageResult;
+import io.sustc.dto.RecipeRecord;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Cache of whole {@code searchRecipes} pages, keyed by the normalized arguments.
+ * <p>
+ * Every write that can change a search result (a recipe created, deleted or retimed, a rating refreshed,
+ * an author deleted) bumps one generation counter with {@link #invalidate}, right away and again after
+ * its transaction commits. A page is only served while the generation it was read under is current; the
+ * generation is read before the page is, as in {@link TotalsCache}.
+ * <p>
+ * Pages are stored and returned as deep copies, like the records of {@link RecipeCache}, so a caller that
+ * modifies its page or records cannot change what others are served.
+ */
+@Component
+public class SearchResultCache {
+
+    /**
+     * Counters since the last import.
+     *
+     * @param stale lookups that found the page, but read under an outdated generation
+     */
+    public record Stats(int size, long generation, long hits, long misses, long stale, long evictions) {
+
+        public double hitRate() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+    }
+
+    private record Entry(PageResult<RecipeRecord> page, long generation) {
+    }
+
+    /**
+     * Maximum number of cached pages, 0 disables the cache.
+     */
+    @Value("${sustc.search.result-cache-size:10000}")
+    private int maxSize;
+
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stale = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final Map<List<?>, Entry> entries = new LinkedHashMap<>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<?>, Entry> eldest) {
+            if (size() > maxSize) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /**
+     * @param key    the normalized search arguments
+     * @param loader runs the search on a miss
+     */
+    public PageResult<RecipeRecord> get(List<?> key, Supplier<PageResult<RecipeRecord>> loader) {
+        if (maxSize <= 0) {
+            return loader.get();
+        }
+        long current = generation.get();
+        Entry cached;
+        synchronized (entries) {
+            cached = entries.get(key);
+        }
+        if (cached != null) {
+            if (cached.generation() == current) {
+                hits.incrementAndGet();
+                return copy(cached.page());
+            }
+            stale.incrementAndGet();
+        }
+        misses.incrementAndGet();
+        PageResult<RecipeRecord> page = loader.get();
+        Entry loaded = new Entry(copy(page), current);
+        synchronized (entries) {
+            entries.put(key, loaded);
+        }
+        return page;
+    }
+
+    /**
+     * Outdates every cached page, now and once the current transaction (if any) commits.
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        TransactionHooks.afterCommit(generation::incrementAndGet);
+    }
+
+    public Stats stats() {
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        return new Stats(size, generation.get(), hits.get(), misses.get(), stale.get(), evictions.get());
+    }
+
+    @EventListener
+    public void onDataImported(DataImportedEvent event) {
+        generation.incrementAndGet();
+        synchronized (entries) {
+            entries.clear();
+        }
+        hits.set(0);
+        misses.set(0);
+        stale.set(0);
+        evictions.set(0);
+    }
+
+    private static PageResult<RecipeRecord> copy(PageResult<RecipeRecord> page) {
+        List<RecipeRecord> items = new ArrayList<>(page.getItems().size());
+        for (RecipeRecord recipe : page.getItems()) {
+            items.add(RecipeCache.copy(recipe));
+        }
+        return PageResult.<RecipeRecord>builder()
+                .items(items)
+                .page(page.getPage())
+                .size(page.getSize())
+                .total(page.getTotal())
+                .nextCursor(page.getNextCursor())
+                .build();
+    }
+}
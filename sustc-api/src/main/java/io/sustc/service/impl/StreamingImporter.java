@@ -0,0 +1,181 @@
+package io.sustc.service.impl;
+
+import io.sustc.dto.RecipeRecord;
+import io.sustc.dto.ReviewRecord;
+import io.sustc.dto.UserRecord;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Import path for producers that parse their input incrementally, such as the CSV loaders.
+ * <p>
+ * Instead of handing complete record lists to {@link DatabaseServiceImpl#importData}, a producer opens a
+ * {@link Session} and submits bounded batches as it parses them. The batches pass through a small bounded
+ * queue to a single writer thread, so the producer blocks whenever the database falls behind and at most
+ * a few batches are held in memory at any time.
+ * <p>
+ * Batches are written in submission order, so all users must be submitted before any recipe, and all
+ * recipes before any review. Follow edges can point to users that have not been written yet, so they are
+ * collected in a compact {@link FollowEdges.Builder} and written when the session finishes.
+ */
+@Component
+@Slf4j
+public class StreamingImporter {
+
+    @Autowired
+    private DatabaseServiceImpl databaseService;
+
+    @Autowired
+    private ImportPipeline importPipeline;
+
+    /**
+     * Number of parsed batches that may wait for the writer before producers block.
+     */
+    @Value("${sustc.import.stream-queue:4}")
+    private int queueCapacity;
+
+    /**
+     * Creates the tables and starts the writer. The database is expected to be empty.
+     */
+    public Session open() {
+        return new Session(databaseService.beginImport());
+    }
+
+    public final class Session implements AutoCloseable {
+
+        private static final ImportPipeline.Task END = conn -> {
+        };
+
+        private final DatabaseServiceImpl.ImportMode mode;
+        private final BlockingQueue<ImportPipeline.Task> queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        private final FollowEdges.Builder follows = new FollowEdges.Builder(1 << 16);
+        /**
+         * Ids submitted so far, to drop duplicates before COPY; unused by the batched inserts.
+         */
+        private final Set<Long> userIds = new HashSet<>();
+        private final Set<Long> recipeIds = new HashSet<>();
+        private final Set<Long> reviewIds = new HashSet<>();
+        private final Thread writer;
+        private volatile RuntimeException failure;
+        private boolean finished;
+
+        private Session(DatabaseServiceImpl.ImportMode mode) {
+            this.mode = mode;
+            this.writer = new Thread(this::drain, "import-writer");
+            this.writer.setDaemon(true);
+            this.writer.start();
+        }
+
+        /**
+         * Queues a batch of users. The session takes ownership of the list.
+         */
+        public void users(List<UserRecord> batch) {
+            List<UserRecord> users = mode.copy() ? CopyLoader.withNewIds(batch, UserRecord::getAuthorId, userIds) : batch;
+            for (UserRecord u : batch) {
+                follows.add(u);
+            }
+            submit(conn -> databaseService.loadUsers(conn, mode, users));
+        }
+
+        /**
+         * Queues a batch of recipes and their ingredients. The session takes ownership of the list.
+         */
+        public void recipes(List<RecipeRecord> batch) {
+            List<RecipeRecord> recipes = mode.copy() ? CopyLoader.withNewIds(batch, RecipeRecord::getRecipeId, recipeIds) : batch;
+            submit(conn -> {
+                databaseService.loadRecipes(conn, mode, recipes);
+                databaseService.loadRecipeIngredients(conn, mode, recipes);
+            });
+        }
+
+        /**
+         * Queues a batch of reviews and their likes. The session takes ownership of the list.
+         */
+        public void reviews(List<ReviewRecord> batch) {
+            List<ReviewRecord> reviews = mode.copy() ? CopyLoader.withNewIds(batch, ReviewRecord::getReviewId, reviewIds) : batch;
+            submit(conn -> {
+                databaseService.loadReviews(conn, mode, reviews);
+                databaseService.loadReviewLikes(conn, mode, reviews);
+            });
+        }
+
+        /**
+         * Waits for the queued batches, writes the follow edges and completes the import.
+         */
+        public void finish() {
+            submit(END);
+            join();
+            finished = true;
+            checkFailure();
+
+            FollowEdges edges = follows.build();
+            for (ImportPipeline.Task task : databaseService.followTasks(mode, edges)) {
+                importPipeline.inTransaction(task);
+            }
+            databaseService.completeImport(mode);
+        }
+
+        /**
+         * Stops the writer if the session was abandoned before {@link #finish()}.
+         */
+        @Override
+        public void close() {
+            if (!finished) {
+                writer.interrupt();
+                join();
+            }
+        }
+
+        private void submit(ImportPipeline.Task task) {
+            checkFailure();
+            try {
+                queue.put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+
+        private void drain() {
+            try {
+                while (true) {
+                    ImportPipeline.Task task = queue.take();
+                    if (task == END) {
+                        return;
+                    }
+                    importPipeline.inTransaction(task);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                log.error("Streaming import failed", e);
+                failure = e;
+                // unblock a producer waiting on a full queue
+                queue.clear();
+            }
+        }
+
+        private void join() {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+
+        private void checkFailure() {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package io.sustc.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Keeps the active users ordered by follower/following ratio, so the leader asked for by
+ * {@code getUserWithHighestFollowRatio} is known without scanning anything.
+ * <p>
+ * Every user with a non-zero counter has an entry, and the entries of users that follow someone are
+ * ordered by ratio descending, then author id ascending. Ratios are compared exactly by
+ * cross-multiplication, never as floating point. The counters come from {@code users} after every import,
+ * or on first use if this process did not run the import, minus the edges of deleted users that
+ * {@link AccountCleanup} has not removed yet. Afterwards they change only by deltas applied after commit:
+ * {@code follow} reports its own, and {@code deleteAccount} those of the users on the other end of the
+ * deleted account's edges. Deltas commute, so transactions that commit concurrently can report them in any
+ * order.
+ * <p>
+ * A transaction may commit just before the load reads {@code users} and report its delta only after the
+ * load. Each delta therefore carries the id of its transaction, and deltas of transactions that are
+ * visible in the snapshot of the load are skipped, since the load already counted them.
+ */
+@Component
+@Slf4j
+public class TopRatioTracker {
+
+    /**
+     * Counters of one user.
+     */
+    private record Entry(long authorId, int followers, int following) {
+    }
+
+    /**
+     * A {@code txid_current_snapshot()}: transactions below {@code xmin} had finished, those from
+     * {@code xmax} on had not started, and of the ones in between those in {@code running} were in progress.
+     */
+    private record Snapshot(long xmin, long xmax, long[] running) {
+
+        static final Snapshot NONE = new Snapshot(0, 0, new long[0]);
+
+        static Snapshot parse(String text) {
+            String[] parts = text.split(":");
+            long[] running = parts.length < 3 || parts[2].isEmpty() ? new long[0]
+                    : Arrays.stream(parts[2].split(",")).mapToLong(Long::parseLong).sorted().toArray();
+            return new Snapshot(Long.parseLong(parts[0]), Long.parseLong(parts[1]), running);
+        }
+
+        /**
+         * @return whether the changes of the (committed) transaction were visible in this snapshot
+         */
+        boolean sees(long txid) {
+            return txid < xmin || (txid < xmax && Arrays.binarySearch(running, txid) < 0);
+        }
+    }
+
+    private static final Comparator<Entry> BY_RATIO = (a, b) -> {
+        // a.followers / a.following > b.followers / b.following  <=>  a.followers * b.following > b.followers * a.following
+        int byRatio = Long.compare((long) b.followers() * a.following(), (long) a.followers() * b.following());
+        return byRatio != 0 ? byRatio : Long.compare(a.authorId(), b.authorId());
+    };
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final Map<Long, Entry> entries = new HashMap<>();
+    private final TreeSet<Entry> ranked = new TreeSet<>(BY_RATIO);
+    private volatile boolean loaded;
+    /**
+     * Snapshot in which the last load read the counters.
+     */
+    private Snapshot loadedSnapshot = Snapshot.NONE;
+
+    private volatile Entry leader;
+    private volatile String leaderName;
+
+    /**
+     * @return the current leader as {@code AuthorId}, {@code AuthorName} and {@code Ratio}, or {@code null}
+     * if no active user follows anyone
+     */
+    public Map<String, Object> leader() {
+        ensureLoaded();
+        Entry top = leader;
+        if (top == null) {
+            return null;
+        }
+        String name = leaderName;
+        if (name == null) {
+            name = jdbcTemplate.queryForList("SELECT AuthorName FROM users WHERE AuthorId = ?", String.class, top.authorId())
+                    .stream().findFirst().orElse(null);
+            synchronized (this) {
+                if (leader == top) {
+                    leaderName = name;
+                }
+            }
+        }
+        Map<String, Object> response = new HashMap<>();
+        response.put("AuthorId", top.authorId());
+        response.put("AuthorName", name);
+        response.put("Ratio", top.followers() * 1.0 / top.following());
+        return response;
+    }
+
+    /**
+     * Adds the deltas to the user's counters once the current transaction (if any) commits.
+     *
+     * @param txid {@code txid_current()} of the transaction that changed the counters
+     */
+    public void adjust(long authorId, int followersDelta, int followingDelta, long txid) {
+        TransactionHooks.afterCommit(() -> {
+            synchronized (this) {
+                if (!loaded) {
+                    // 尚未载入时，之后的载入会读到已提交的计数
+                    return;
+                }
+                if (loadedSnapshot.sees(txid)) {
+                    // 在载入读取之前已提交，载入时已经计入
+                    return;
+                }
+                Entry old = entries.getOrDefault(authorId, new Entry(authorId, 0, 0));
+                put(old, new Entry(authorId, old.followers() + followersDelta, old.following() + followingDelta));
+            }
+        });
+    }
+
+    /**
+     * Drops a deleted user once the current transaction (if any) commits.
+     */
+    public void remove(long authorId) {
+        TransactionHooks.afterCommit(() -> {
+            synchronized (this) {
+                if (!loaded) {
+                    return;
+                }
+                Entry old = entries.remove(authorId);
+                if (old != null) {
+                    ranked.remove(old);
+                    updateLeader();
+                }
+            }
+        });
+    }
+
+    @EventListener
+    public synchronized void onDataImported(DataImportedEvent event) {
+        load();
+    }
+
+    private void ensureLoaded() {
+        if (!loaded) {
+            synchronized (this) {
+                if (!loaded) {
+                    load();
+                }
+            }
+        }
+    }
+
+    private void load() {
+        entries.clear();
+        ranked.clear();
+        loadedSnapshot = null;
+        // 快照与计数在同一条语句中读取，两者一致；尚未清理的注销仍计在对方的计数中，需要扣除
+        jdbcTemplate.query("""
+                SELECT s.snapshot, u.AuthorId,
+                       u.Followers - COALESCE(p.followers, 0), u.Following - COALESCE(p.following, 0)
+                FROM (SELECT txid_current_snapshot()::text AS snapshot) s
+                LEFT JOIN users u ON u.IsDeleted = FALSE AND (u.Followers > 0 OR u.Following > 0)
+                LEFT JOIN (""" + AccountCleanup.PENDING_DELTAS + """
+                ) p ON p.id = u.AuthorId
+                """,
+                rs -> {
+                    if (loadedSnapshot == null) {
+                        loadedSnapshot = Snapshot.parse(rs.getString(1));
+                    }
+                    if (rs.getObject(2) != null) {
+                        put(null, new Entry(rs.getLong(2), rs.getInt(3), rs.getInt(4)));
+                    }
+                });
+        loaded = true;
+        updateLeader();
+        log.debug("Tracking follow ratios of {} users", ranked.size());
+    }
+
+    private void put(Entry old, Entry updated) {
+        if (old != null && old.following() > 0) {
+            ranked.remove(old);
+        }
+        if (updated.followers() == 0 && updated.following() == 0) {
+            entries.remove(updated.authorId());
+        } else {
+            entries.put(updated.authorId(), updated);
+            if (updated.following() > 0) {
+                ranked.add(updated);
+            }
+        }
+        updateLeader();
+    }
+
+    private void updateLeader() {
+        Entry top = ranked.isEmpty() ? null : ranked.first();
+        if (leader == null || top == null || leader.authorId() != top.authorId()) {
+            leaderName = null;
+        }
+        leader = top;
+    }
+}
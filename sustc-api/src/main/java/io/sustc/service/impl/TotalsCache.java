@@ -0,0 +1,164 @@
+package io.sustc.service.impl;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Cache of the {@code total} of the paged queries, keyed by query and normalized filter.
+ * <p>
+ * Every table a total depends on has a generation counter. Writers bump it with {@link #invalidate}, once
+ * right after the write and again after the transaction commits. A cached total remembers the generations
+ * it was counted under and is only served while they are current. The generations are read before the
+ * COUNT runs, so a count that overlaps a commit is never served afterwards.
+ * <p>
+ * With {@code sustc.totals.estimate-above} set, a total the planner estimates to be at least that large is
+ * reported as the estimate instead of being counted. Broad keyword searches then cost one EXPLAIN instead
+ * of a scan of every match.
+ */
+@Component
+public class TotalsCache {
+
+    /**
+     * Tables whose writes change some total.
+     */
+    public enum Table {
+        USERS, RECIPES, REVIEWS, FOLLOWS
+    }
+
+    /**
+     * The paged queries and the tables their totals depend on.
+     */
+    public enum Query {
+        SEARCH(Table.RECIPES, Table.USERS),
+        FEED(Table.RECIPES, Table.FOLLOWS),
+        REVIEWS(Table.REVIEWS);
+
+        private final Table[] tables;
+
+        Query(Table... tables) {
+            this.tables = tables;
+        }
+    }
+
+    private record Key(Query query, List<?> filter) {
+    }
+
+    private record Entry(long total, long[] generations) {
+    }
+
+    private static final Pattern PLAN_ROWS = Pattern.compile("\"Plan Rows\":\\s*([0-9.eE+]+)");
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Maximum number of cached totals, 0 disables the cache.
+     */
+    @Value("${sustc.totals.size:10000}")
+    private int maxSize;
+
+    /**
+     * Estimated totals at least this large are not counted, 0 always counts.
+     */
+    @Value("${sustc.totals.estimate-above:0}")
+    private long estimateAbove;
+
+    private final AtomicLongArray generations = new AtomicLongArray(Table.values().length);
+
+    private final Map<Key, Entry> entries = new LinkedHashMap<>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            return size() > maxSize;
+        }
+    };
+
+    /**
+     * @param filter the normalized filter values, which together with the query identify the total
+     * @param sql    the {@code SELECT COUNT(*)} to run on a miss
+     * @return the number of rows matching the filter
+     */
+    public long count(Query query, List<?> filter, String sql, Object... params) {
+        if (maxSize <= 0) {
+            return compute(sql, params);
+        }
+        Key key = new Key(query, filter);
+        long[] current = generationsOf(query);
+        synchronized (entries) {
+            Entry cached = entries.get(key);
+            if (cached != null && Arrays.equals(cached.generations(), current)) {
+                return cached.total();
+            }
+        }
+        long total = compute(sql, params);
+        synchronized (entries) {
+            entries.put(key, new Entry(total, current));
+        }
+        return total;
+    }
+
+    /**
+     * Outdates the totals that depend on the tables, now and once the current transaction (if any) commits.
+     */
+    public void invalidate(Table... tables) {
+        bump(tables);
+        TransactionHooks.afterCommit(() -> bump(tables));
+    }
+
+    @EventListener
+    public void onDataImported(DataImportedEvent event) {
+        bump(Table.values());
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    private long compute(String sql, Object... params) {
+        if (estimateAbove > 0) {
+            long estimate = estimate(sql, params);
+            if (estimate >= estimateAbove) {
+                return estimate;
+            }
+        }
+        Long total = jdbcTemplate.queryForObject(sql, Long.class, params);
+        return total == null ? 0 : total;
+    }
+
+    /**
+     * @return the planner's row estimate for the input of the COUNT, or -1 if the plan has none
+     */
+    private long estimate(String countSql, Object... params) {
+        // 用 SELECT 1 替换 COUNT(*)，顶层节点的行数估计即为结果集大小
+        String sql = "EXPLAIN (FORMAT JSON) " + countSql.replaceFirst("(?i)SELECT\\s+COUNT\\(\\*\\)", "SELECT 1");
+        String plan = jdbcTemplate.queryForObject(sql, String.class, params);
+        Matcher matcher = plan == null ? null : PLAN_ROWS.matcher(plan);
+        if (matcher == null || !matcher.find()) {
+            return -1;
+        }
+        return (long) Double.parseDouble(matcher.group(1));
+    }
+
+    private long[] generationsOf(Query query) {
+        long[] result = new long[query.tables.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = generations.get(query.tables[i].ordinal());
+        }
+        return result;
+    }
+
+    private void bump(Table... tables) {
+        for (Table table : tables) {
+            generations.incrementAndGet(table.ordinal());
+        }
+    }
+}
@@ -1,25 +1,89 @@
 package io.sustc.service.impl;
 
 import io.sustc.dto.*;
+import io.sustc.service.UserKeysetService;
 import io.sustc.service.UserService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import java.time.LocalDate;
 import java.time.Period;
 import java.util.*;
 
 @Service
 @Slf4j
-public class UserServiceImpl implements UserService {
+public class UserServiceImpl implements UserService, UserKeysetService {
 
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private IdAllocator idAllocator;
+
+    @Autowired
+    private AuthCache authCache;
+
+    @Autowired
+    private ActiveUserGuard activeUserGuard;
+
+    @Autowired
+    private FollowGraph followGraph;
+
+    /**
+     * Whether follow lists, counts and membership tests are answered by the in-memory {@link FollowGraph}.
+     */
+    @Value("${sustc.follow-graph.enabled:true}")
+    private boolean followGraphEnabled;
+
+    @Autowired
+    private TopRatioTracker topRatioTracker;
+
+    /**
+     * Whether {@link #getUserWithHighestFollowRatio()} is answered by the {@link TopRatioTracker}.
+     */
+    @Value("${sustc.top-ratio.enabled:true}")
+    private boolean topRatioEnabled;
+
+    @Autowired
+    private MaterializedFeed materializedFeed;
+
+    @Autowired
+    private TotalsCache totalsCache;
+
+    @Autowired
+    private RecipeSearchIndex recipeSearchIndex;
+
+    @Autowired
+    private SearchResultCache searchResultCache;
+
+    @Autowired
+    private AccountCleanup accountCleanup;
+
+    @Autowired
+    private NameFilter nameFilter;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+
+    private static final String REGISTER_SQL =
+        "INSERT INTO users (AuthorId, AuthorName, Gender, Age, Followers, Following, Password, IsDeleted) " +
+        "VALUES (?, ?, ?, ?, 0, 0, ?, FALSE)";
+
+    /**
+     * Inserts the user unless the name is taken, probing {@code idx_users_name} in the same statement.
+     */
+    private static final String REGISTER_IF_NEW_SQL =
+        "INSERT INTO users (AuthorId, AuthorName, Gender, Age, Followers, Following, Password, IsDeleted) " +
+        "SELECT ?, ?, ?, ?, 0, 0, ?, FALSE " +
+        "WHERE NOT EXISTS (SELECT 1 FROM users WHERE AuthorName = ?)";
 
     @Override
     public long register(RegisterUserReq req) {
@@ -55,41 +119,36 @@ public class UserServiceImpl implements UserService {
             return -1;
         }
 
-        // 检查是否已存在同名用户
-        Boolean userExists = jdbcTemplate.queryForObject(
-            "SELECT EXISTS(SELECT 1 FROM users WHERE AuthorName = ?)",
-            Boolean.class,
-            req.getName()
-        );
+        String genderStr = req.getGender() == RegisterUserReq.Gender.MALE ? "Male" : "Female";
+        String password = req.getPassword() != null ? req.getPassword() : "";
 
-        if (userExists != null && userExists) {
-            return -1;
-        }
+        // 从序列中按块预取的ID分配新的用户ID
+        long newUserId = idAllocator.nextUserId();
+        String name = req.getName();
+        int userAge = age;
 
-        // 使用数据库序列生成新的用户ID
-        Long newUserId;
+        Integer inserted;
         try {
-            newUserId = jdbcTemplate.queryForObject(
-                "SELECT COALESCE(MAX(AuthorId), 0) + 1 FROM users",
-                Long.class
-            );
-        } catch (Exception e) {
-            newUserId = 1L;
+            // 提交之前名字过滤器不会重新载入，载入时读到的表一定包含这个名字
+            inserted = nameFilter.withoutReload(() -> transactionTemplate.execute(status -> {
+                // 同名注册按名字串行，后到者在前者提交后才检查
+                jdbcTemplate.queryForList("SELECT pg_advisory_xact_lock(hashtext(?))", name);
+                // 布隆过滤器确定是新名字时直接插入，否则在插入语句中检查是否已存在同名用户
+                return nameFilter.testAndAdd(name)
+                    ? jdbcTemplate.update(REGISTER_IF_NEW_SQL, newUserId, name, genderStr, userAge, password, name)
+                    : jdbcTemplate.update(REGISTER_SQL, newUserId, name, genderStr, userAge, password);
+            }));
+        } catch (DuplicateKeyException e) {
+            // 名字上有唯一索引时，并发注册的同名用户已先插入
+            inserted = 0;
+        }
+        if (inserted == null || inserted == 0) {
+            // 归还未使用的ID，保持ID连续
+            idAllocator.releaseUserId(newUserId);
+            return -1;
         }
 
-        // 插入新用户
-        String genderStr = req.getGender() == RegisterUserReq.Gender.MALE ? "Male" : "Female";
-        jdbcTemplate.update(
-            "INSERT INTO users (AuthorId, AuthorName, Gender, Age, Followers, Following, Password, IsDeleted) VALUES (?, ?, ?, ?, ?, ?, ?, ?)",
-            newUserId,
-            req.getName(),
-            genderStr,
-            age,
-            0,  // followers
-            0,  // following
-            req.getPassword() != null ? req.getPassword() : "",  // password
-            false  // isDeleted
-        );
+        activeUserGuard.markRegistered(newUserId);
 
         return newUserId;
     }
@@ -110,39 +169,17 @@ public class UserServiceImpl implements UserService {
         }
 
         try {
-            // 检查用户是否存在且未被删除
-            Boolean isDeleted = jdbcTemplate.queryForObject(
-                "SELECT IsDeleted FROM users WHERE AuthorId = ?",
-                Boolean.class,
-                authorId
-            );
-
-            if (isDeleted == null || isDeleted) {
-                return -1;
-            }
-
-            // 检查密码是否匹配
-            String storedPassword = jdbcTemplate.queryForObject(
-                "SELECT Password FROM users WHERE AuthorId = ?",
-                String.class,
-                authorId
-            );
-
-            if (storedPassword != null && storedPassword.equals(password)) {
-                return authorId;
-            } else {
-                return -1;
-            }
-        } catch (EmptyResultDataAccessException e) {
-            // 用户不存在
-            return -1;
+            // 一次查询同时取出删除标记和密码，并按用户缓存
+            AuthCache.Credential credential = authCache.get(authorId);
+            return credential != null && credential.accepts(password) ? authorId : -1;
         } catch (Exception e) {
-            // 任何其他异常都返回 -1
+            // 任何异常都返回 -1
             return -1;
         }
     }
 
     @Override
+    @Transactional
     public boolean deleteAccount(AuthInfo auth, long userId) {
         // 检查认证信息
         if (auth == null) {
@@ -161,36 +198,107 @@ public class UserServiceImpl implements UserService {
             throw new SecurityException("User can only delete their own account");
         }
 
-        try {
-            // 检查操作用户是否存在且未被删除
-            Boolean operatorIsDeleted = jdbcTemplate.queryForObject(
-                "SELECT IsDeleted FROM users WHERE AuthorId = ?",
-                Boolean.class,
-                operatorId
-            );
-
-            if (operatorIsDeleted == null || operatorIsDeleted) {
-                throw new SecurityException("Operator user is inactive or does not exist");
-            }
-
-            // 执行软删除
-            jdbcTemplate.update(
-                "UPDATE users SET IsDeleted = true WHERE AuthorId = ?",
-                userId
-            );
-
-            // 删除所有关注关系
-            jdbcTemplate.update(
-                "DELETE FROM user_follows WHERE FollowerId = ? OR FollowingId = ?",
-                userId, userId
-            );
-
-            return true;
-        } catch (EmptyResultDataAccessException e) {
+        // 检查操作用户是否存在且未被删除
+        if (!activeUserGuard.exists(operatorId)) {
             throw new IllegalArgumentException("Target user does not exist");
         }
+        if (!activeUserGuard.isActive(operatorId)) {
+            throw new SecurityException("Operator user is inactive or does not exist");
+        }
+
+        // 执行软删除，计数同时清零
+        jdbcTemplate.update(
+            "UPDATE users SET IsDeleted = true, Followers = 0, Following = 0 WHERE AuthorId = ?",
+            userId
+        );
+        authCache.invalidate(userId);
+        activeUserGuard.markDeleted(userId);
+
+        // 关注关系及对方的关注数/粉丝数由后台任务异步清理，这里只登记
+        accountCleanup.enqueue(userId);
+        topRatioTracker.remove(userId);
+        if (topRatioEnabled) {
+            // 排行榜在提交时就扣除对方计数中的这些关注关系，不必等待清理
+            jdbcTemplate.query(COUNTERPART_DELTAS_SQL, rs -> {
+                topRatioTracker.adjust(rs.getLong("id"), -rs.getInt("followers"), -rs.getInt("following"), rs.getLong("txid"));
+            }, userId, userId);
+        }
+        materializedFeed.userDeleted(userId);
+        if (followGraphEnabled) {
+            followGraph.removeUser(userId);
+        }
+        totalsCache.invalidate(TotalsCache.Table.USERS, TotalsCache.Table.FOLLOWS);
+        recipeSearchIndex.authorDeleted(userId);
+        searchResultCache.invalidate();
+
+        return true;
     }
 
+    /**
+     * How the edges of a user being deleted count towards the active users on the other end, with the id of
+     * the deleting transaction. Parameters: the user, twice.
+     */
+    private static final String COUNTERPART_DELTAS_SQL = """
+            SELECT x.id, SUM(x.followers)::int AS followers, SUM(x.following)::int AS following, txid_current() AS txid
+            FROM (
+                SELECT FollowingId AS id, 1 AS followers, 0 AS following FROM user_follows WHERE FollowerId = ?
+                UNION ALL
+                SELECT FollowerId, 0, 1 FROM user_follows WHERE FollowingId = ?
+            ) x
+            JOIN users u ON u.AuthorId = x.id AND u.IsDeleted = FALSE
+            GROUP BY x.id
+            """;
+
+    /**
+     * Toggles a follow edge in one statement: both users must be active, an existing edge is deleted,
+     * otherwise one is inserted, and both counters move by the net change. Reports whether the users were
+     * valid and how many edges were removed and added.
+     * <p>
+     * All parts see the same snapshot, so the insert only runs if the delete found nothing. If a concurrent
+     * toggle inserts the same edge first, {@code ON CONFLICT} turns this one into a no-op that still
+     * reports "following".
+     */
+    static final String FOLLOW_TOGGLE_STEPS = """
+            WITH valid AS (
+                SELECT 1
+                FROM users a
+                JOIN users b ON b.AuthorId = ?
+                WHERE a.AuthorId = ? AND a.IsDeleted = FALSE AND b.IsDeleted = FALSE
+            ), removed AS (
+                DELETE FROM user_follows
+                WHERE FollowerId = ? AND FollowingId = ? AND EXISTS (SELECT 1 FROM valid)
+                RETURNING 1
+            ), added AS (
+                INSERT INTO user_follows (FollowerId, FollowingId)
+                SELECT ?, ?
+                WHERE EXISTS (SELECT 1 FROM valid) AND NOT EXISTS (SELECT 1 FROM removed)
+                ON CONFLICT DO NOTHING
+                RETURNING 1
+            ), delta AS (
+                SELECT (SELECT COUNT(*) FROM added) - (SELECT COUNT(*) FROM removed) AS n
+            ), counted AS (
+                UPDATE users u
+                SET Following = u.Following + CASE WHEN u.AuthorId = ? THEN d.n ELSE 0 END,
+                    Followers = u.Followers + CASE WHEN u.AuthorId = ? THEN d.n ELSE 0 END
+                FROM delta d
+                WHERE u.AuthorId IN (?, ?) AND d.n <> 0
+            )
+            """;
+
+    private static final String FOLLOW_TOGGLE_RESULT = """
+            SELECT EXISTS (SELECT 1 FROM valid) AS valid,
+                   (SELECT COUNT(*) FROM removed) AS removed,
+                   (SELECT COUNT(*) FROM added) AS added,
+                   txid_current() AS txid
+            """;
+
+    static final String FOLLOW_TOGGLE_SQL = FOLLOW_TOGGLE_STEPS + FOLLOW_TOGGLE_RESULT;
+
+    /**
+     * The toggle plus the maintenance of the {@link MaterializedFeed} timeline, in the same statement.
+     */
+    static final String FOLLOW_TOGGLE_FEED_SQL = FOLLOW_TOGGLE_STEPS + MaterializedFeed.FOLLOW_TOGGLE_STEPS + FOLLOW_TOGGLE_RESULT;
+
     @Override
     public boolean follow(AuthInfo auth, long followeeId) {
         // 检查认证信息
@@ -210,57 +318,60 @@ public class UserServiceImpl implements UserService {
             throw new SecurityException("User cannot follow themselves");
         }
 
-        try {
-            // 检查关注者是否存在且未被删除
-            Boolean followerIsDeleted = jdbcTemplate.queryForObject(
-                "SELECT IsDeleted FROM users WHERE AuthorId = ?",
-                Boolean.class,
-                followerId
-            );
+        // 检查关注者是否存在且未被删除（内存检查，用于给出明确的错误信息）
+        if (!activeUserGuard.isActive(followerId)) {
+            throw new SecurityException("Follower user is inactive or does not exist");
+        }
 
-            if (followerIsDeleted == null || followerIsDeleted) {
-                throw new SecurityException("Follower user is inactive or does not exist");
-            }
+        // 检查被关注者是否存在且未被删除
+        if (!activeUserGuard.isActive(followeeId)) {
+            throw new SecurityException("Followee user is inactive or does not exist");
+        }
 
-            // 检查被关注者是否存在且未被删除
-            Boolean followeeIsDeleted = jdbcTemplate.queryForObject(
-                "SELECT IsDeleted FROM users WHERE AuthorId = ?",
-                Boolean.class,
-                followeeId
-            );
+        // 校验、取关或关注、更新计数在同一条语句中原子完成
+        List<Object> params = new ArrayList<>(List.of(
+            followeeId, followerId,
+            followerId, followeeId,
+            followerId, followeeId,
+            followerId, followeeId, followerId, followeeId
+        ));
+        String sql = FOLLOW_TOGGLE_SQL;
+        if (materializedFeed.isEnabled()) {
+            // 关注时回填被关注者的菜谱，取关时从时间线中移除
+            sql = FOLLOW_TOGGLE_FEED_SQL;
+            params.addAll(List.of(followerId, followeeId, followerId, followeeId));
+        }
+        long[] result = jdbcTemplate.queryForObject(sql,
+            (rs, rowNum) -> new long[]{rs.getBoolean("valid") ? 1 : 0, rs.getLong("removed"), rs.getLong("added"), rs.getLong("txid")},
+            params.toArray()
+        );
+        if (result[0] == 0) {
+            throw new SecurityException("User is inactive or does not exist");
+        }
 
-            if (followeeIsDeleted == null || followeeIsDeleted) {
-                throw new SecurityException("Followee user is inactive or does not exist");
+        if (result[1] > 0) {
+            // 已经关注，取消关注后状态为未关注
+            topRatioTracker.adjust(followerId, 0, -1, result[3]);
+            topRatioTracker.adjust(followeeId, -1, 0, result[3]);
+            if (followGraphEnabled) {
+                followGraph.removeEdge(followerId, followeeId);
             }
-
-            // 检查是否已经关注
-            Boolean isFollowing = jdbcTemplate.queryForObject(
-                "SELECT EXISTS(SELECT 1 FROM user_follows WHERE FollowerId = ? AND FollowingId = ?)",
-                Boolean.class,
-                followerId, followeeId
-            );
-
-            if (isFollowing != null && isFollowing) {
-                // 已经关注，执行取消关注
-                jdbcTemplate.update(
-                    "DELETE FROM user_follows WHERE FollowerId = ? AND FollowingId = ?",
-                    followerId, followeeId
-                );
-                return false; // 取消关注后状态为未关注
-            } else {
-                // 未关注，执行关注
-                jdbcTemplate.update(
-                    "INSERT INTO user_follows (FollowerId, FollowingId) VALUES (?, ?)",
-                    followerId, followeeId
-                );
-                return true; // 关注后状态为已关注
+            // 在关注图之后登记，提交后总数的失效不会早于关注图的更新
+            totalsCache.invalidate(TotalsCache.Table.FOLLOWS);
+            return false;
+        }
+        if (result[2] > 0) {
+            topRatioTracker.adjust(followerId, 0, 1, result[3]);
+            topRatioTracker.adjust(followeeId, 1, 0, result[3]);
+            if (followGraphEnabled) {
+                followGraph.addEdge(followerId, followeeId);
             }
-        } catch (EmptyResultDataAccessException e) {
-            throw new SecurityException("User does not exist");
+            totalsCache.invalidate(TotalsCache.Table.FOLLOWS);
         }
+        // 关注后状态为已关注（包括并发请求已先插入同一关系的情况）
+        return true;
     }
 
-
     private final RowMapper<UserRecord> userRowMapper = (rs, rowNum) -> {
         UserRecord record = new UserRecord();
         record.setAuthorId(rs.getLong("AuthorId"));
@@ -274,11 +385,41 @@ public class UserServiceImpl implements UserService {
         return record;
     };
 
+    /**
+     * The user row with both follow lists as comma-separated, sorted ids, and their lengths.
+     * <p>
+     * Edges of deleted users stay in {@code user_follows} until {@link AccountCleanup} gets to them, so both
+     * lists skip counterparts still queued in {@code account_cleanup}, and a queued user has none. The
+     * maintained counters would still include those edges, so the counts are taken from the lists.
+     */
+    static final String GET_BY_ID_SQL = """
+            SELECT u.AuthorId, u.AuthorName, u.Gender, u.Age, u.Password, u.IsDeleted,
+                   fr.n AS FollowerCount, fr.ids AS FollowerIds,
+                   fg.n AS FollowingCount, fg.ids AS FollowingIds
+            FROM users u
+            CROSS JOIN LATERAL (
+                SELECT EXISTS (SELECT 1 FROM account_cleanup c WHERE c.AuthorId = u.AuthorId) AS queued
+            ) q
+            CROSS JOIN LATERAL (
+                SELECT COUNT(*) AS n, array_to_string(array_agg(f.FollowerId ORDER BY f.FollowerId), ',') AS ids
+                FROM user_follows f
+                WHERE f.FollowingId = u.AuthorId AND NOT q.queued
+                  AND NOT EXISTS (SELECT 1 FROM account_cleanup c WHERE c.AuthorId = f.FollowerId)
+            ) fr
+            CROSS JOIN LATERAL (
+                SELECT COUNT(*) AS n, array_to_string(array_agg(f.FollowingId ORDER BY f.FollowingId), ',') AS ids
+                FROM user_follows f
+                WHERE f.FollowerId = u.AuthorId AND NOT q.queued
+                  AND NOT EXISTS (SELECT 1 FROM account_cleanup c WHERE c.AuthorId = f.FollowingId)
+            ) fg
+            WHERE u.AuthorId = ?
+            """;
+
     @Override
     public UserRecord getById(long userId) {
-        try {
-            // 查询用户基本信息
-            UserRecord record = jdbcTemplate.queryForObject(
+        if (followGraphEnabled) {
+            // 关注关系直接从内存中的关注图读取
+            List<UserRecord> rows = jdbcTemplate.query(
                 "SELECT AuthorId, AuthorName, Gender, Age, Password, IsDeleted FROM users WHERE AuthorId = ?",
                 (rs, rowNum) -> {
                     UserRecord r = new UserRecord();
@@ -292,43 +433,66 @@ public class UserServiceImpl implements UserService {
                 },
                 userId
             );
-            
-            // 动态计算 followers 数量（有多少人关注了这个用户）
-            Integer followersCount = jdbcTemplate.queryForObject(
-                "SELECT COUNT(*) FROM user_follows WHERE FollowingId = ?",
-                Integer.class,
-                userId
-            );
-            record.setFollowers(followersCount != null ? followersCount : 0);
-            
-            // 动态计算 following 数量（这个用户关注了多少人）
-            Integer followingCount = jdbcTemplate.queryForObject(
-                "SELECT COUNT(*) FROM user_follows WHERE FollowerId = ?",
-                Integer.class,
-                userId
-            );
-            record.setFollowing(followingCount != null ? followingCount : 0);
-            
-            // 查询 followerUsers 列表（关注这个用户的用户ID列表）
-            List<Long> followerUserList = jdbcTemplate.queryForList(
-                "SELECT FollowerId FROM user_follows WHERE FollowingId = ? ORDER BY FollowerId",
-                Long.class,
-                userId
-            );
-            record.setFollowerUsers(followerUserList != null ? followerUserList.stream().mapToLong(Long::longValue).toArray() : new long[0]);
-            
-            // 查询 followingUsers 列表（这个用户关注的用户ID列表）
-            List<Long> followingUserList = jdbcTemplate.queryForList(
-                "SELECT FollowingId FROM user_follows WHERE FollowerId = ? ORDER BY FollowingId",
-                Long.class,
-                userId
-            );
-            record.setFollowingUsers(followingUserList != null ? followingUserList.stream().mapToLong(Long::longValue).toArray() : new long[0]);
-            
+            if (rows.isEmpty()) {
+                return null;
+            }
+            UserRecord record = rows.get(0);
+            long[] followerUsers = followGraph.followersOf(userId);
+            long[] followingUsers = followGraph.followingOf(userId);
+            record.setFollowers(followerUsers.length);
+            record.setFollowing(followingUsers.length);
+            record.setFollowerUsers(followerUsers);
+            record.setFollowingUsers(followingUsers);
             return record;
-        } catch (EmptyResultDataAccessException e) {
-            return null;
         }
+
+        // 一条语句取出用户信息、关注数/粉丝数以及两个有序的ID列表
+        List<UserRecord> rows = jdbcTemplate.query(GET_BY_ID_SQL, (rs, rowNum) -> {
+            UserRecord r = new UserRecord();
+            r.setAuthorId(rs.getLong("AuthorId"));
+            r.setAuthorName(rs.getString("AuthorName"));
+            r.setGender(rs.getString("Gender"));
+            r.setAge(rs.getInt("Age"));
+            r.setPassword(rs.getString("Password"));
+            r.setDeleted(rs.getBoolean("IsDeleted"));
+            int followers = rs.getInt("FollowerCount");
+            int following = rs.getInt("FollowingCount");
+            r.setFollowers(followers);
+            r.setFollowing(following);
+            r.setFollowerUsers(parseIdList(rs.getString("FollowerIds"), followers));
+            r.setFollowingUsers(parseIdList(rs.getString("FollowingIds"), following));
+            return r;
+        }, userId);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    /**
+     * Decodes a comma-separated id list without boxing the ids. {@code expected} only sizes the array.
+     */
+    static long[] parseIdList(String ids, int expected) {
+        if (ids == null || ids.isEmpty()) {
+            return new long[0];
+        }
+        long[] result = new long[Math.max(1, expected)];
+        int n = 0;
+        long value = 0;
+        boolean negative = false;
+        for (int i = 0, len = ids.length(); i <= len; i++) {
+            char c = i < len ? ids.charAt(i) : ',';
+            if (c == ',') {
+                if (n == result.length) {
+                    result = Arrays.copyOf(result, n * 2);
+                }
+                result[n++] = negative ? -value : value;
+                value = 0;
+                negative = false;
+            } else if (c == '-') {
+                negative = true;
+            } else {
+                value = value * 10 + (c - '0');
+            }
+        }
+        return n == result.length ? result : Arrays.copyOf(result, n);
     }
 
     @Override
@@ -348,13 +512,7 @@ public class UserServiceImpl implements UserService {
 
         try {
             // 检查用户是否存在且未被删除
-            Boolean isDeleted = jdbcTemplate.queryForObject(
-                "SELECT IsDeleted FROM users WHERE AuthorId = ?",
-                Boolean.class,
-                userId
-            );
-
-            if (isDeleted == null || isDeleted) {
+            if (!activeUserGuard.isActive(userId)) {
                 throw new SecurityException("User is inactive or does not exist");
             }
 
@@ -425,115 +583,190 @@ public class UserServiceImpl implements UserService {
 
     @Override
     public PageResult<FeedItem> feed(AuthInfo auth, int page, int size, String category) {
+        long userId = feedUser(auth);
+
+        // 检查分页参数
+        if (page < 1) {
+            page = 1;
+        }
+        size = feedSize(size);
+
+        if (materializedFeed.isEnabled()) {
+            // 直接读取该用户的时间线
+            MaterializedFeed.Page timeline = materializedFeed.page(userId, category, page, size, feedItemRowMapper);
+            return PageResult.<FeedItem>builder()
+                    .items(timeline.items())
+                    .page(page)
+                    .size(size)
+                    .total(timeline.total())
+                    .build();
+        }
+
+        List<Object> params = new ArrayList<>();
+        String whereClause = feedWhere(userId, category, params);
+        if (whereClause == null) {
+            return emptyFeed(page, size);
+        }
+
+        // 查询总数
+        long total = countFeed(userId, category, whereClause, params);
+
+        // 查询数据
+        String sql = feedPageSql(whereClause);
+
+        params.add(size);
+        params.add((page - 1) * size);
+
+        List<FeedItem> items = jdbcTemplate.query(sql, feedItemRowMapper, params.toArray());
+
+        return PageResult.<FeedItem>builder()
+                .items(items)
+                .page(page)
+                .size(size)
+                .total(total)
+                .build();
+    }
+
+    @Override
+    public PageResult<FeedItem> feedAfter(AuthInfo auth, String cursor, int size, String category) {
+        long userId = feedUser(auth);
+        size = feedSize(size);
+
+        if (materializedFeed.isEnabled()) {
+            return materializedFeed.pageAfter(userId, category, cursor, size, feedItemRowMapper);
+        }
+
+        List<Object> params = new ArrayList<>();
+        String whereClause = feedWhere(userId, category, params);
+        if (whereClause == null) {
+            return emptyFeed(1, size);
+        }
+
+        // 总数只在第一页计算
+        long total = cursor == null ? countFeed(userId, category, whereClause, params) : -1;
+        return FEED_KEYSET.fetch(jdbcTemplate, FEED_SELECT, whereClause, params, cursor, size, total, feedItemRowMapper);
+    }
+
+    static final String FEED_SELECT =
+            "SELECT r.RecipeId, r.Name, r.AuthorId, u.AuthorName, r.DatePublished, r.AggregatedRating, r.ReviewCount " +
+            "FROM recipes r " +
+            "JOIN users u ON r.AuthorId = u.AuthorId ";
+
+    /**
+     * Feed filter when the followees come from the follow graph; the parameter is their id array.
+     */
+    static final String FEED_BY_FOLLOWEES = " WHERE r.AuthorId = ANY(?)";
+
+    /**
+     * Feed filter when the followees are read from {@code user_follows}; the parameter is the follower. Skips
+     * authors still queued in {@code account_cleanup}.
+     */
+    static final String FEED_BY_FOLLOWER =
+            " WHERE r.AuthorId IN (SELECT f.FollowingId FROM user_follows f WHERE f.FollowerId = ? " +
+            "AND NOT EXISTS (SELECT 1 FROM account_cleanup c WHERE c.AuthorId = f.FollowingId))";
+
+    /**
+     * The page query of {@link #feed}; the last two parameters are the limit and the offset.
+     */
+    static String feedPageSql(String whereClause) {
+        return FEED_SELECT + whereClause + FEED_KEYSET.orderBy() + "LIMIT ? OFFSET ?";
+    }
+
+    /**
+     * The order of {@link #feed}: {@code DatePublished DESC, RecipeId DESC}, with the default NULL placement.
+     */
+    static final Keyset FEED_KEYSET = new Keyset("feed",
+            new Keyset.Key("r.DatePublished", "DatePublished", true, Keyset.Nulls.FIRST),
+            new Keyset.Key("r.RecipeId", "RecipeId", true, Keyset.Nulls.NONE));
+
+    /**
+     * @return the id of the acting user
+     * @throws SecurityException if the user is invalid or inactive
+     */
+    private long feedUser(AuthInfo auth) {
         // 检查认证信息
         if (auth == null) {
             throw new SecurityException("Invalid authentication info");
         }
 
         long userId = auth.getAuthorId();
-        
+
         // 检查userId是否有效
         if (userId <= 0) {
             throw new SecurityException("Invalid authentication info");
         }
 
-        // 检查分页参数
-        if (page < 1) {
-            page = 1;
-        }
-        
-        if (size < 1) {
-            size = 1;
-        } else if (size > 200) {
-            size = 200;
+        // 检查用户是否存在且未被删除
+        if (!activeUserGuard.isActive(userId)) {
+            throw new SecurityException("User is inactive or does not exist");
         }
+        return userId;
+    }
 
-        try {
-            // 检查用户是否存在且未被删除
-            Boolean isDeleted = jdbcTemplate.queryForObject(
-                "SELECT IsDeleted FROM users WHERE AuthorId = ?",
-                Boolean.class,
-                userId
-            );
+    private static int feedSize(int size) {
+        return Math.max(1, Math.min(size, 200));
+    }
 
-            if (isDeleted == null || isDeleted) {
-                throw new SecurityException("User is inactive or does not exist");
+    /**
+     * Builds the WHERE clause selecting the recipes of the authors the user follows.
+     *
+     * @return the clause, or {@code null} if the user is known to follow no one
+     */
+    private String feedWhere(long userId, String category, List<Object> params) {
+        // 构建查询条件
+        StringBuilder whereClause;
+        if (followGraphEnabled) {
+            // 关注列表来自内存中的关注图，以数组参数传入
+            long[] followees = followGraph.followingOf(userId);
+            if (followees.length == 0) {
+                return null;
             }
-
-            // 构建查询条件
-            StringBuilder whereClause = new StringBuilder(
-                " WHERE r.AuthorId IN (SELECT FollowingId FROM user_follows WHERE FollowerId = ?)");
-            List<Object> params = new ArrayList<>();
+            whereClause = new StringBuilder(FEED_BY_FOLLOWEES);
+            params.add(followees);
+        } else {
+            // 跳过已注销但关注关系尚未被清理的作者
+            whereClause = new StringBuilder(FEED_BY_FOLLOWER);
             params.add(userId);
+        }
 
-            // 添加分类筛选条件
-            if (category != null && !category.isEmpty()) {
-                whereClause.append(" AND r.RecipeCategory = ?");
-                params.add(category);
-            }
-
-            // 查询总数
-            String countSql = "SELECT COUNT(*) FROM recipes r" + whereClause;
-            Long total = jdbcTemplate.queryForObject(countSql, Long.class, params.toArray());
-            if (total == null) total = 0L;
-
-            // 查询数据
-            String sql = "SELECT r.RecipeId, r.Name, r.AuthorId, u.AuthorName, r.DatePublished, r.AggregatedRating, r.ReviewCount " + "FROM recipes r " +
-                    "JOIN users u ON r.AuthorId = u.AuthorId " +
-                    whereClause +
-                    " ORDER BY r.DatePublished DESC, r.RecipeId DESC " +
-                    "LIMIT ? OFFSET ?";
-            
-            params.add(size);
-            params.add((page - 1) * size);
+        // 添加分类筛选条件
+        if (category != null && !category.isEmpty()) {
+            whereClause.append(" AND r.RecipeCategory = ?");
+            params.add(category);
+        }
+        return whereClause.toString();
+    }
 
-            List<FeedItem> items = jdbcTemplate.query(sql, feedItemRowMapper, params.toArray());
+    private long countFeed(long userId, String category, String whereClause, List<Object> params) {
+        return totalsCache.count(TotalsCache.Query.FEED, Arrays.asList(userId, category == null || category.isEmpty() ? null : category),
+                "SELECT COUNT(*) FROM recipes r" + whereClause, params.toArray());
+    }
 
-            return PageResult.<FeedItem>builder()
-                    .items(items)
-                    .page(page)
-                    .size(size)
-                    .total(total)
-                    .build();
-        } catch (EmptyResultDataAccessException e) {
-            throw new SecurityException("User does not exist");
-        }
+    private static PageResult<FeedItem> emptyFeed(int page, int size) {
+        return PageResult.<FeedItem>builder()
+                .items(new ArrayList<>())
+                .page(page)
+                .size(size)
+                .total(0L)
+                .build();
     }
 
     @Override
     public Map<String, Object> getUserWithHighestFollowRatio() {
+        if (topRatioEnabled) {
+            return topRatioTracker.leader();
+        }
         try {
+            // Followers/Following 列随每次关注、取关同步维护，只需扣除尚未清理的注销用户的关注关系
             String sql = """
-                SELECT
-                    u.AuthorId,
-                    u.AuthorName,
-                    COALESCE(follower_counts.follower_count, 0) AS follower_count,
-                    COALESCE(following_counts.following_count, 0) AS following_count,
-                    CASE
-                        WHEN COALESCE(following_counts.following_count, 0) > 0
-                        THEN COALESCE(follower_counts.follower_count, 0) * 1.0 / COALESCE(following_counts.following_count, 0)
-                        ELSE NULL
-                    END AS ratio
+                SELECT u.AuthorId, u.AuthorName,
+                       (u.Followers - COALESCE(p.followers, 0)) * 1.0 / (u.Following - COALESCE(p.following, 0)) AS ratio
                 FROM users u
-                LEFT JOIN (
-                    SELECT FollowingId AS AuthorId, COUNT(*) AS follower_count
-                    FROM user_follows
-                    GROUP BY FollowingId
-                ) follower_counts ON u.AuthorId = follower_counts.AuthorId
-                LEFT JOIN (
-                    SELECT FollowerId AS AuthorId, COUNT(*) AS following_count
-                    FROM user_follows
-                    GROUP BY FollowerId
-                ) following_counts ON u.AuthorId = following_counts.AuthorId
+                LEFT JOIN (""" + AccountCleanup.PENDING_DELTAS + """
+                ) p ON p.id = u.AuthorId
                 WHERE u.IsDeleted = FALSE
-                  AND COALESCE(following_counts.following_count, 0) > 0
-                ORDER BY
-                    CASE
-                        WHEN COALESCE(following_counts.following_count, 0) > 0
-                        THEN COALESCE(follower_counts.follower_count, 0) * 1.0 / COALESCE(following_counts.following_count, 0)
-                        ELSE NULL
-                    END DESC,
-                    u.AuthorId ASC
+                  AND u.Following - COALESCE(p.following, 0) > 0
+                ORDER BY ratio DESC, u.AuthorId ASC
                 LIMIT 1
                 """;
 
@@ -0,0 +1,306 @@
+package io.sustc.service.impl;
+
+import io.sustc.dto.FeedItem;
+import io.sustc.dto.PageResult;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Pages through every keyset order to the end and checks that the pages add up to the OFFSET query of the
+ * same method. The data has many ties and {@code NULL}s in the leading sort keys, so every branch of the
+ * seek condition is used.
+ * <p>
+ * Needs a PostgreSQL database: by default the one of the runner's application.yml, otherwise the one given
+ * by {@code SUSTC_TEST_JDBC_URL}, {@code SUSTC_TEST_JDBC_USER} and {@code SUSTC_TEST_JDBC_PASSWORD}. The
+ * tables live in a schema of their own that is dropped afterwards. Skipped if the database is unreachable.
+ */
+class KeysetTest {
+
+    private static final String SCHEMA = "sustc_keyset_test";
+    private static final long FOLLOWER = 1;
+    private static final int[] PAGE_SIZES = {1, 2, 7, 50};
+
+    private static SingleConnectionDataSource dataSource;
+    private static JdbcTemplate jdbcTemplate;
+
+    @BeforeAll
+    static void createData() {
+        dataSource = new SingleConnectionDataSource(
+                env("SUSTC_TEST_JDBC_URL", "jdbc:postgresql://localhost:5432/sustc"),
+                env("SUSTC_TEST_JDBC_USER", "sustc"),
+                env("SUSTC_TEST_JDBC_PASSWORD", "sustc"),
+                true);
+        try {
+            dataSource.getConnection();
+        } catch (SQLException e) {
+            dataSource = null;
+            assumeTrue(false, "No test database: " + e.getMessage());
+        }
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+        jdbcTemplate.execute("CREATE SCHEMA " + SCHEMA);
+        jdbcTemplate.execute("SET search_path TO " + SCHEMA);
+        jdbcTemplate.execute("CREATE TABLE users (AuthorId BIGINT PRIMARY KEY, AuthorName VARCHAR(255) NOT NULL, " +
+                "IsDeleted BOOLEAN DEFAULT FALSE)");
+        jdbcTemplate.execute("CREATE TABLE recipes (RecipeId BIGINT PRIMARY KEY, Name VARCHAR(500) NOT NULL, " +
+                "AuthorId BIGINT NOT NULL, CookTime VARCHAR(50), PrepTime VARCHAR(50), TotalTime VARCHAR(50), " +
+                "DatePublished TIMESTAMP, Description TEXT, RecipeCategory VARCHAR(255), AggregatedRating DECIMAL(3,2), " +
+                "ReviewCount INTEGER DEFAULT 0, Calories DECIMAL(10,2), FatContent DECIMAL(10,2), " +
+                "SaturatedFatContent DECIMAL(10,2), CholesterolContent DECIMAL(10,2), SodiumContent DECIMAL(10,2), " +
+                "CarbohydrateContent DECIMAL(10,2), FiberContent DECIMAL(10,2), SugarContent DECIMAL(10,2), " +
+                "ProteinContent DECIMAL(10,2), RecipeServings INTEGER, RecipeYield VARCHAR(100))");
+        jdbcTemplate.execute("CREATE TABLE recipe_ingredients (RecipeId BIGINT NOT NULL, IngredientPart VARCHAR(500) NOT NULL)");
+        jdbcTemplate.execute("CREATE TABLE reviews (ReviewId BIGINT PRIMARY KEY, RecipeId BIGINT NOT NULL, " +
+                "AuthorId BIGINT NOT NULL, Rating DECIMAL(3,2), Review TEXT, DateSubmitted TIMESTAMP, DateModified TIMESTAMP)");
+        jdbcTemplate.execute("CREATE TABLE review_likes (ReviewId BIGINT NOT NULL, AuthorId BIGINT NOT NULL, " +
+                "PRIMARY KEY (ReviewId, AuthorId))");
+        jdbcTemplate.execute("CREATE TABLE user_follows (FollowerId BIGINT NOT NULL, FollowingId BIGINT NOT NULL, " +
+                "PRIMARY KEY (FollowerId, FollowingId))");
+        jdbcTemplate.execute("CREATE TABLE account_cleanup (AuthorId BIGINT PRIMARY KEY)");
+
+        // 取值范围很小，使排序键大量重复，并混入 NULL
+        Random random = new Random(307);
+        Timestamp[] dates = new Timestamp[12];
+        for (int i = 0; i < dates.length; i++) {
+            dates[i] = Timestamp.valueOf("2023-0" + (1 + i % 9) + "-1" + i % 10 + " 08:30:00." + (i % 3 == 0 ? "123456" : "0"));
+        }
+        BigDecimal[] ratings = {new BigDecimal("1.00"), new BigDecimal("2.50"), new BigDecimal("4.75"), new BigDecimal("5.00")};
+        BigDecimal[] calories = {BigDecimal.ZERO, new BigDecimal("120.50"), new BigDecimal("999.99")};
+
+        List<Object[]> users = new ArrayList<>();
+        for (long id = 1; id <= 20; id++) {
+            users.add(new Object[]{id, "user" + id, id == 20});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO users VALUES (?, ?, ?)", users);
+
+        List<Object[]> recipes = new ArrayList<>();
+        for (long id = 1; id <= 300; id++) {
+            recipes.add(new Object[]{id, "recipe" + id, 1 + random.nextInt(20),
+                    random.nextInt(10) == 0 ? null : dates[random.nextInt(dates.length)],
+                    random.nextInt(5) == 0 ? null : ratings[random.nextInt(ratings.length)],
+                    random.nextInt(6) == 0 ? null : calories[random.nextInt(calories.length)]});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO recipes (RecipeId, Name, AuthorId, DatePublished, AggregatedRating, Calories) " +
+                "VALUES (?, ?, ?, ?, ?, ?)", recipes);
+        jdbcTemplate.update("INSERT INTO recipe_ingredients VALUES (1, 'salt'), (1, 'Pepper')");
+
+        List<Object[]> reviews = new ArrayList<>();
+        for (long id = 1; id <= 200; id++) {
+            reviews.add(new Object[]{id, 1 + random.nextInt(3), 1 + random.nextInt(20),
+                    random.nextInt(10) == 0 ? null : "review" + id,
+                    random.nextInt(5) == 0 ? null : dates[random.nextInt(dates.length)]});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO reviews (ReviewId, RecipeId, AuthorId, Review, DateModified) " +
+                "VALUES (?, ?, ?, ?, ?)", reviews);
+
+        Set<Long> likes = new HashSet<>();
+        for (int i = 0; i < 300; i++) {
+            likes.add((1 + random.nextInt(200)) * 100L + 1 + random.nextInt(20));
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO review_likes VALUES (?, ?)",
+                likes.stream().map(like -> new Object[]{like / 100, like % 100}).toList());
+
+        List<Object[]> follows = new ArrayList<>();
+        for (long id = 2; id <= 20; id += 2) {
+            follows.add(new Object[]{FOLLOWER, id});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO user_follows VALUES (?, ?)", follows);
+        // 仍在清理队列中的作者不出现在 feed 中
+        jdbcTemplate.update("INSERT INTO account_cleanup VALUES (4)");
+    }
+
+    @AfterAll
+    static void dropData() {
+        if (dataSource != null) {
+            jdbcTemplate.execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+            dataSource.destroy();
+        }
+    }
+
+    static Stream<Arguments> searchOrders() {
+        return withPageSizes("rating_desc", "date_desc", "calories_asc", "id");
+    }
+
+    @ParameterizedTest
+    @MethodSource("searchOrders")
+    void searchPagesMatchOffsetQuery(String sort, int size) {
+        String where = " WHERE u.IsDeleted = FALSE ";
+        List<Long> expected = jdbcTemplate.query(
+                RecipeServiceImpl.RECIPE_SELECT + where + RecipeServiceImpl.searchOrderBy(sort) + " LIMIT ? OFFSET ? ",
+                (rs, rowNum) -> rs.getLong("RecipeId"), Integer.MAX_VALUE, 0);
+
+        List<Long> paged = pageThrough(RecipeServiceImpl.searchKeyset(sort), RecipeServiceImpl.RECIPE_SELECT, where,
+                List.of(), size, (rs, rowNum) -> rs.getLong("RecipeId"));
+
+        assertEquals(expected, paged);
+    }
+
+    @ParameterizedTest
+    @MethodSource("searchOrders")
+    void filteredSearchPagesMatchOffsetQuery(String sort, int size) {
+        String where = " WHERE u.IsDeleted = FALSE AND r.AggregatedRating >= ? ";
+        List<Long> expected = jdbcTemplate.query(
+                RecipeServiceImpl.RECIPE_SELECT + where + RecipeServiceImpl.searchOrderBy(sort) + " LIMIT ? OFFSET ? ",
+                (rs, rowNum) -> rs.getLong("RecipeId"), 2.5, Integer.MAX_VALUE, 0);
+
+        List<Long> paged = pageThrough(RecipeServiceImpl.searchKeyset(sort), RecipeServiceImpl.RECIPE_SELECT, where,
+                List.of(2.5), size, (rs, rowNum) -> rs.getLong("RecipeId"));
+
+        assertEquals(expected, paged);
+    }
+
+    static Stream<Arguments> reviewOrders() {
+        return withPageSizes("date_desc", "likes_desc");
+    }
+
+    @ParameterizedTest
+    @MethodSource("reviewOrders")
+    void reviewPagesMatchOffsetQuery(String sort, int size) {
+        for (long recipeId = 1; recipeId <= 3; recipeId++) {
+            List<Long> expected = jdbcTemplate.query(ReviewServiceImpl.listByRecipeSql(sort),
+                    (rs, rowNum) -> rs.getLong("ReviewId"), recipeId, Integer.MAX_VALUE, 0);
+
+            List<Long> paged = pageThrough(ReviewServiceImpl.reviewKeyset(sort), ReviewServiceImpl.REVIEW_SELECT,
+                    ReviewServiceImpl.LIST_BY_RECIPE_WHERE, List.of(recipeId), size, (rs, rowNum) -> rs.getLong("ReviewId"));
+
+            assertEquals(expected, paged);
+        }
+    }
+
+    static Stream<Arguments> feedPageSizes() {
+        return withPageSizes("feed");
+    }
+
+    @ParameterizedTest
+    @MethodSource("feedPageSizes")
+    void feedPagesMatchOffsetQuery(String order, int size) {
+        List<Long> expected = jdbcTemplate.query(UserServiceImpl.feedPageSql(UserServiceImpl.FEED_BY_FOLLOWER),
+                (rs, rowNum) -> rs.getLong("RecipeId"), FOLLOWER, Integer.MAX_VALUE, 0);
+
+        List<Long> paged = pageThrough(UserServiceImpl.FEED_KEYSET, UserServiceImpl.FEED_SELECT,
+                UserServiceImpl.FEED_BY_FOLLOWER, List.of(FOLLOWER), size, (rs, rowNum) -> rs.getLong("RecipeId"));
+
+        assertTrue(expected.size() > size);
+        assertEquals(expected, paged);
+    }
+
+    @ParameterizedTest
+    @MethodSource("feedPageSizes")
+    void timelinePagesMatchOffsetQuery(String order, int size) {
+        TotalsCache totalsCache = new TotalsCache();
+        ReflectionTestUtils.setField(totalsCache, "jdbcTemplate", jdbcTemplate);
+        MaterializedFeed feed = new MaterializedFeed();
+        ReflectionTestUtils.setField(feed, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(feed, "totalsCache", totalsCache);
+        ReflectionTestUtils.setField(feed, "enabled", true);
+        feed.build();
+
+        RowMapper<FeedItem> mapper = (rs, rowNum) -> {
+            FeedItem item = new FeedItem();
+            item.setRecipeId(rs.getLong("RecipeId"));
+            return item;
+        };
+        List<Long> expected = feed.page(FOLLOWER, null, 1, Integer.MAX_VALUE, mapper).items().stream()
+                .map(FeedItem::getRecipeId).toList();
+
+        List<Long> paged = new ArrayList<>();
+        String cursor = null;
+        do {
+            PageResult<FeedItem> page = feed.pageAfter(FOLLOWER, null, cursor, size, mapper);
+            page.getItems().forEach(item -> paged.add(item.getRecipeId()));
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        assertTrue(expected.size() > size);
+        assertEquals(expected, paged);
+    }
+
+    @Test
+    void lastPageHasNoCursor() {
+        PageResult<Long> page = UserServiceImpl.FEED_KEYSET.fetch(jdbcTemplate, UserServiceImpl.FEED_SELECT,
+                UserServiceImpl.FEED_BY_FOLLOWER, List.of(FOLLOWER), null, 10_000, 42, (rs, rowNum) -> rs.getLong("RecipeId"));
+
+        assertNull(page.getNextCursor());
+        assertEquals(1, page.getPage());
+        assertEquals(42, page.getTotal());
+    }
+
+    @Test
+    void rejectsForeignAndDamagedCursors() {
+        Keyset byRating = RecipeServiceImpl.searchKeyset("rating_desc");
+        Keyset byDate = RecipeServiceImpl.searchKeyset("date_desc");
+        String where = " WHERE u.IsDeleted = FALSE ";
+        String cursor = byRating.fetch(jdbcTemplate, RecipeServiceImpl.RECIPE_SELECT, where, List.of(), null, 3, -1,
+                (rs, rowNum) -> rs.getLong("RecipeId")).getNextCursor();
+
+        assertThrows(IllegalArgumentException.class, () -> byDate.fetch(jdbcTemplate, RecipeServiceImpl.RECIPE_SELECT,
+                where, List.of(), cursor, 3, -1, (rs, rowNum) -> rs.getLong("RecipeId")));
+        assertThrows(IllegalArgumentException.class, () -> byRating.fetch(jdbcTemplate, RecipeServiceImpl.RECIPE_SELECT,
+                where, List.of(), "%%%", 3, -1, (rs, rowNum) -> rs.getLong("RecipeId")));
+        String forged = Base64.getUrlEncoder().withoutPadding().encodeToString("rating_desc|2|x1|n|l1".getBytes());
+        assertThrows(IllegalArgumentException.class, () -> byRating.fetch(jdbcTemplate, RecipeServiceImpl.RECIPE_SELECT,
+                where, List.of(), forged, 3, -1, (rs, rowNum) -> rs.getLong("RecipeId")));
+    }
+
+    /**
+     * Follows the cursors from the first page to the last and checks the page numbers and sizes on the way.
+     */
+    private static List<Long> pageThrough(Keyset keyset, String select, String where, List<?> params, int size,
+                                          RowMapper<Long> mapper) {
+        List<Long> ids = new ArrayList<>();
+        String cursor = null;
+        int expectedPage = 1;
+        do {
+            PageResult<Long> page = keyset.fetch(jdbcTemplate, select, where, params, cursor, size, -1, mapper);
+            assertEquals(expectedPage++, page.getPage());
+            cursor = page.getNextCursor();
+            if (cursor != null) {
+                assertEquals(size, page.getItems().size());
+            } else {
+                assertTrue(page.getItems().size() <= size);
+            }
+            ids.addAll(page.getItems());
+        } while (cursor != null);
+        return ids;
+    }
+
+    private static Stream<Arguments> withPageSizes(String... orders) {
+        List<Arguments> arguments = new ArrayList<>();
+        for (String order : orders) {
+            for (int size : PAGE_SIZES) {
+                arguments.add(Arguments.of(order, size));
+            }
+        }
+        return arguments.stream();
+    }
+
+    private static String env(String name, String fallback) {
+        String value = System.getenv(name);
+        return value == null || value.isEmpty() ? fallback : value;
+    }
+}
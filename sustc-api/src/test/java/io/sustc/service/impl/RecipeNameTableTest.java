@@ -0,0 +1,222 @@
+package io.sustc.service.impl;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Exercises the open-addressing table of {@link RecipeNameTable} through its public methods, with the
+ * recipes table replaced by a map. Outside a transaction, creates and deletes are applied right away.
+ */
+class RecipeNameTableTest {
+
+    /**
+     * The smallest table, so overflow is reached after a few hundred names.
+     */
+    private static final int SMALL = 1024;
+
+    private FakeRecipes recipes;
+
+    @BeforeEach
+    void setUp() {
+        recipes = new FakeRecipes();
+    }
+
+    @Test
+    void loadsNamesFromTheTable() {
+        recipes.rows.put(1L, "Pancakes");
+        recipes.rows.put(2L, "Crème brûlée");
+        recipes.rows.put(3L, "");
+        RecipeNameTable table = table(new RecipeNameTable());
+
+        assertEquals("Pancakes", table.get(1));
+        assertEquals("Crème brûlée", table.get(2));
+        assertEquals("", table.get(3));
+        assertNull(table.get(4));
+        assertNull(table.get(0));
+        assertNull(table.get(-1));
+        assertEquals(0, recipes.lookups);
+    }
+
+    @Test
+    void createReplaceAndDelete() {
+        RecipeNameTable table = table(new RecipeNameTable(SMALL));
+
+        table.recipeCreated(10, "Soup");
+        assertEquals("Soup", table.get(10));
+        table.recipeCreated(10, "Stew");
+        assertEquals("Stew", table.get(10));
+
+        table.recipeDeleted(10);
+        assertNull(table.get(10));
+        // 删除不存在的菜谱不影响其他条目
+        table.recipeDeleted(11);
+        assertEquals(0, recipes.lookups);
+    }
+
+    @Test
+    void reinsertsATombstonedId() {
+        RecipeNameTable table = table(new RecipeNameTable(SMALL));
+        for (long id = 1; id <= 200; id++) {
+            table.recipeCreated(id, "recipe " + id);
+        }
+        for (long id = 1; id <= 200; id += 2) {
+            table.recipeDeleted(id);
+        }
+
+        // 删除标记不能截断其后的探测序列
+        for (long id = 1; id <= 200; id++) {
+            assertEquals(id % 2 == 0 ? "recipe " + id : null, table.get(id));
+        }
+        for (long id = 1; id <= 200; id += 2) {
+            table.recipeCreated(id, "again " + id);
+        }
+        for (long id = 1; id <= 200; id++) {
+            assertEquals(id % 2 == 0 ? "recipe " + id : "again " + id, table.get(id));
+        }
+        assertEquals(200, (int) ReflectionTestUtils.getField(table, "occupied"));
+        assertEquals(0, (int) ReflectionTestUtils.getField(table, "deletedSlots"));
+    }
+
+    @Test
+    void growsTheSlotsAndTheArena() {
+        RecipeNameTable table = table(new RecipeNameTable());
+        String padding = "x".repeat(100);
+        for (long id = 1; id <= 5000; id++) {
+            table.recipeCreated(id * 7919, padding + id);
+        }
+
+        for (long id = 1; id <= 5000; id++) {
+            assertEquals(padding + id, table.get(id * 7919));
+        }
+        int capacity = (int) ReflectionTestUtils.getField(table, "capacity");
+        assertTrue(capacity >= 2 * 5000, "capacity " + capacity);
+        assertFalse((boolean) ReflectionTestUtils.getField(table, "full"));
+    }
+
+    @Test
+    void rehashesTombstonesAwayWithoutGrowing() {
+        RecipeNameTable table = table(new RecipeNameTable(SMALL));
+        // 存活的条目很少，反复新建、删除只会留下删除标记
+        for (long id = 1; id <= 100_000; id++) {
+            table.recipeCreated(id, "r" + id);
+            if (id > 10) {
+                table.recipeDeleted(id - 10);
+            }
+        }
+
+        assertEquals(SMALL, (int) ReflectionTestUtils.getField(table, "capacity"));
+        assertFalse((boolean) ReflectionTestUtils.getField(table, "full"));
+        for (long id = 100_000 - 9; id <= 100_000; id++) {
+            assertEquals("r" + id, table.get(id));
+        }
+        assertNull(table.get(100_000 - 10));
+        assertEquals(0, recipes.lookups);
+    }
+
+    @Test
+    void overflowsToQueriesAndRecoversOnImport() {
+        RecipeNameTable table = table(new RecipeNameTable(SMALL));
+        for (long id = 1; id <= SMALL / 2; id++) {
+            table.recipeCreated(id, "r" + id);
+            recipes.rows.put(id, "r" + id);
+        }
+        assertFalse((boolean) ReflectionTestUtils.getField(table, "full"));
+
+        // 超过半满且已达最大容量
+        table.recipeCreated(SMALL, "one too many");
+        recipes.rows.put((long) SMALL, "one too many");
+        assertTrue((boolean) ReflectionTestUtils.getField(table, "full"));
+
+        assertEquals("r1", table.get(1));
+        assertEquals("one too many", table.get(SMALL));
+        assertNull(table.get(SMALL + 1));
+        assertEquals(3, recipes.lookups);
+
+        // 溢出之后的更新被忽略，名字直接从数据库查询
+        table.recipeCreated(SMALL + 1, "ignored");
+        recipes.rows.put((long) SMALL + 1, "from the table");
+        assertEquals("from the table", table.get(SMALL + 1));
+
+        recipes.rows.keySet().removeIf(id -> id > 100);
+        table.onDataImported(new DataImportedEvent());
+        assertFalse((boolean) ReflectionTestUtils.getField(table, "full"));
+        int lookups = recipes.lookups;
+        assertEquals("r100", table.get(100));
+        assertNull(table.get(101));
+        assertEquals(lookups, recipes.lookups);
+    }
+
+    private RecipeNameTable table(RecipeNameTable table) {
+        ReflectionTestUtils.setField(table, "jdbcTemplate", recipes);
+        ReflectionTestUtils.setField(table, "enabled", true);
+        // 先载入，否则第一次查询时的载入会丢掉此前写入的名字
+        table.onDataImported(new DataImportedEvent());
+        return table;
+    }
+
+    /**
+     * Answers the three queries of {@link RecipeNameTable} from {@link #rows}.
+     */
+    private static final class FakeRecipes extends JdbcTemplate {
+
+        final Map<Long, String> rows = new TreeMap<>();
+        int lookups;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T queryForObject(String sql, Class<T> requiredType) {
+            // SELECT COUNT(*) FROM recipes
+            return (T) Long.valueOf(rows.size());
+        }
+
+        @Override
+        public void query(String sql, RowCallbackHandler rch) {
+            // SELECT RecipeId, Name FROM recipes
+            for (Map.Entry<Long, String> row : rows.entrySet()) {
+                try {
+                    rch.processRow(resultSet(row.getKey(), row.getValue()));
+                } catch (SQLException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> List<T> queryForList(String sql, Class<T> elementType, Object... args) {
+            // SELECT Name FROM recipes WHERE RecipeId = ?
+            lookups++;
+            List<T> names = new ArrayList<>();
+            String name = rows.get((Long) args[0]);
+            if (name != null) {
+                names.add((T) name);
+            }
+            return names;
+        }
+
+        private static ResultSet resultSet(long id, String name) {
+            return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                    (proxy, method, args) -> switch (method.getName()) {
+                        case "getLong" -> id;
+                        case "getString" -> name;
+                        default -> throw new UnsupportedOperationException(method.getName());
+                    });
+        }
+    }
+}
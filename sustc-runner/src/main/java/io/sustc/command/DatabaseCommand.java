@@ -1,24 +1,26 @@
 package io.sustc.command;
 
-import com.opencsv.CSVReaderBuilder;
-import com.opencsv.RFC4180ParserBuilder;
 import io.fury.ThreadSafeFury;
 import io.sustc.benchmark.BenchmarkConfig;
 import io.sustc.benchmark.BenchmarkConstants;
 import io.sustc.benchmark.BenchmarkService;
+import io.sustc.csv.ChunkedCsvParser;
+import io.sustc.csv.CsvRow;
 import io.sustc.dto.*;
 import io.sustc.service.DatabaseService;
 import io.sustc.service.RecipeService;
 import io.sustc.service.ReviewService;
 import io.sustc.service.UserService;
+import io.sustc.service.impl.IndexManager;
+import io.sustc.service.impl.SearchResultCache;
+import io.sustc.service.impl.StreamingImporter;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
 import org.springframework.shell.standard.ShellComponent;
 import org.springframework.shell.standard.ShellMethod;
-import com.opencsv.CSVReader;
-import com.opencsv.exceptions.CsvException;
+import org.springframework.shell.standard.ShellOption;
 
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -30,7 +32,6 @@ import java.time.Instant;
 import java.util.*;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
@@ -43,6 +44,12 @@ import java.util.List;
 @ConditionalOnBean(DatabaseService.class)
 public class DatabaseCommand {
 
+    // users.csv 和 reviews.csv 按 OpenCSV 默认规则（反斜杠转义）解析，recipes.csv 按 RFC4180 解析
+    private static final ChunkedCsvParser BACKSLASH_CSV = new ChunkedCsvParser(ChunkedCsvParser.Dialect.BACKSLASH);
+    private static final ChunkedCsvParser RFC4180_CSV = new ChunkedCsvParser(ChunkedCsvParser.Dialect.RFC4180);
+
+    private static final Pattern QUOTED_ITEM = Pattern.compile("\"([^\"]*)\"");
+
     @Autowired
     private DatabaseService databaseService;
 
@@ -64,6 +71,15 @@ public class DatabaseCommand {
     @Autowired
     private BenchmarkConfig config;
 
+    @Autowired(required = false)
+    private IndexManager indexManager;
+
+    @Autowired(required = false)
+    private StreamingImporter streamingImporter;
+
+    @Autowired(required = false)
+    private SearchResultCache searchResultCache;
+
     @ShellMethod(key = "db groupmember", value = "List group members")
     public List<Integer> listGroupMembers() {
         return databaseService.getGroupMembers();
@@ -82,11 +98,71 @@ public class DatabaseCommand {
         System.out.println("importData time: " + duration + " ms");
     }
 
+    @ShellMethod(key = "db import-csv", value = "Drop all the tables. Then stream the csv files into the database")
+    public void importCsv(@ShellOption(defaultValue = "data/csv") String dir) throws IOException {
+        if (streamingImporter == null) {
+            System.out.println("The submitted implementation does not provide a StreamingImporter");
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+
+        databaseService.drop();
+        int[] counts = new int[3];
+        try (StreamingImporter.Session session = streamingImporter.open()) {
+            BACKSLASH_CSV.parse(Paths.get(dir, "users.csv"), DatabaseCommand::toUser, batch -> {
+                counts[0] += batch.size();
+                session.users(batch);
+            });
+            RFC4180_CSV.parse(Paths.get(dir, "recipes.csv"), DatabaseCommand::toRecipe, batch -> {
+                counts[1] += batch.size();
+                session.recipes(batch);
+            });
+            if (Files.exists(Paths.get(dir, "reviews.csv"))) {
+                BACKSLASH_CSV.parse(Paths.get(dir, "reviews.csv"), DatabaseCommand::toReview, batch -> {
+                    counts[2] += batch.size();
+                    session.reviews(batch);
+                });
+            }
+            session.finish();
+        }
+
+        long duration = System.currentTimeMillis() - startTime;
+        System.out.println("users: " + counts[0] + ", recipes: " + counts[1] + ", reviews: " + counts[2]);
+        System.out.println("importCsv time: " + duration + " ms");
+    }
+
     @ShellMethod(key = "db drop", value = "Drop all the tables")
     public void drop() {
         databaseService.drop();
     }
 
+    @ShellMethod(key = "db explain", value = "Print the query plan of every service query")
+    public void explain(@ShellOption(defaultValue = "false") boolean analyze) {
+        if (indexManager == null) {
+            System.out.println("The submitted implementation does not provide an IndexManager");
+            return;
+        }
+        System.out.println("indexes: " + indexManager.describe());
+        indexManager.explainServiceQueries(analyze).forEach((name, plan) -> {
+            System.out.println("== " + name);
+            System.out.println(plan);
+            System.out.println();
+        });
+    }
+
+    @ShellMethod(key = "db search-cache", value = "Print the statistics of the searchRecipes result cache")
+    public void searchCacheStats() {
+        if (searchResultCache == null) {
+            System.out.println("The submitted implementation does not provide a SearchResultCache");
+            return;
+        }
+        SearchResultCache.Stats stats = searchResultCache.stats();
+        System.out.println("entries: " + stats.size() + ", generation: " + stats.generation());
+        System.out.println("hits: " + stats.hits() + ", misses: " + stats.misses()
+                + String.format(" (hit rate %.1f%%)", stats.hitRate() * 100));
+        System.out.println("stale: " + stats.stale() + ", evictions: " + stats.evictions());
+    }
+
     @ShellMethod(key = "db sum", value = "Demonstrate using DataSource")
     public Integer sum(int a, int b) {
         return databaseService.sum(a, b);
@@ -131,8 +207,7 @@ public class DatabaseCommand {
             String content = trimmed.substring(2, trimmed.length() - 1).trim();
 
             // 使用更简单的正则表达式匹配所有引号内的内容
-            Pattern pattern = Pattern.compile("\"([^\"]*)\"");
-            Matcher matcher = pattern.matcher(content);
+            Matcher matcher = QUOTED_ITEM.matcher(content);
 
             List<String> items = new ArrayList<>();
             while (matcher.find()) {
@@ -158,39 +233,6 @@ public class DatabaseCommand {
                 .toArray(String[]::new);
     }
 
-    // 辅助方法：解析("123", "456")格式的字符串为long数组
-    private static long[] parseCsvLongList(String listStr) {
-        // 处理空值或空字符串
-        if (listStr == null || listStr.trim().isEmpty() || "null".equalsIgnoreCase(listStr.trim())) {
-            return new long[0];
-        }
-
-        String trimmedStr = listStr.trim();
-        // 移除开头的括号和结尾的引号“
-        if(trimmedStr.length()>=2) {
-            trimmedStr = trimmedStr.substring(1, trimmedStr.length() - 1);
-        }
-
-        // 如果字符串已经是空字符串，返回空数组
-        if (trimmedStr.isEmpty()) {
-            return new long[0];
-        }
-
-        // 使用逗号分割字符串，并去除每个部分的前后空格
-        String[] stringArray = trimmedStr.split("\\s*,\\s*");
-        long[] longArray = new long[stringArray.length];
-
-        for (int i = 0; i < stringArray.length; i++) {
-            try {
-                longArray[i] = Long.parseLong(stringArray[i].trim());
-            } catch (NumberFormatException e) {
-                longArray[i] = 0L; // 解析失败设为0
-            }
-        }
-
-        return longArray;
-    }
-
     // 辅助方法：解析时间戳
     private static Timestamp parseTimestamp(String timestampStr) {
         if (timestampStr == null || timestampStr.trim().isEmpty() || "null".equalsIgnoreCase(timestampStr.trim())) {
@@ -253,108 +295,77 @@ public class DatabaseCommand {
     }
 
     // 加载用户数据
-    public static List<UserRecord> loadUsers(String filePath) throws IOException, CsvException {
-        List<UserRecord> users = new ArrayList<>();
-
-        try (CSVReader reader = new CSVReader(new FileReader(filePath))) {
-            List<String[]> records = reader.readAll();
-
-            // 跳过标题行
-            for (int i = 1; i < records.size(); i++) {
-                String[] fields = records.get(i);
-
-                if (fields.length >= 9) {
-                    UserRecord user = UserRecord.builder().authorId(parseLong(fields[0])).authorName(fields[1] != null ? fields[1].trim() : "").gender(fields[2] != null ? fields[2].trim() : "").age(parseInt(fields[3])).
-                            followers(parseInt(fields[4])).
-                            following(parseInt(fields[5])).
-                            followerUsers(parseCsvLongList(fields[6])).
-                            followingUsers(parseCsvLongList(fields[7])).
-                            password(fields[8] != null ? fields[8].trim() : "").build();
-
-                    users.add(user);
-                }
-            }
-        }
-
-        return users;
+    public static List<UserRecord> loadUsers(String filePath) throws IOException {
+        return BACKSLASH_CSV.parse(Paths.get(filePath), DatabaseCommand::toUser);
     }
 
     //加载食谱数据
-    public static List<RecipeRecord> loadRecipes(String filePath) throws IOException, CsvException {
-        List<RecipeRecord> recipes = new ArrayList<>();
-
-        // 使用 RFC4180Parser 创建 CSVReader
-        try (CSVReader reader = new CSVReaderBuilder(new FileReader(filePath))
-                .withCSVParser(new RFC4180ParserBuilder().build())
-                .build()) {
-
-            List<String[]> records = reader.readAll();
-
-            // 跳过标题行
-            for (int i = 1; i < records.size(); i++) {
-                String[] fields = records.get(i);
-
-                if (fields.length >= 24) {
-                    RecipeRecord recipe = RecipeRecord.builder()
-                            .RecipeId(parseLong(fields[0]))
-                            .name(fields[1] != null ? fields[1].trim() : "")
-                            .authorId(parseLong(fields[2]))
-                            .authorName(fields[3] != null ? fields[3].trim() : "")
-                            .cookTime(fields[4] != null ? fields[4].trim() : "")
-                            .prepTime(fields[5] != null ? fields[5].trim() : "")
-                            .totalTime(fields[6] != null ? fields[6].trim() : "")
-                            .datePublished(parseTimestamp(fields[7]))
-                            .description(fields[8] != null ? fields[8].trim() : "")
-                            .recipeCategory(fields[9] != null ? fields[9].trim() : "")
-                            .recipeIngredientParts(parseCsvList(fields[10]))
-                            .aggregatedRating(parseFloat(fields[11]))
-                            .reviewCount((int)parseFloat(fields[12]))
-                            .calories(parseFloat(fields[13]))
-                            .fatContent(parseFloat(fields[14]))
-                            .saturatedFatContent(parseFloat(fields[15]))
-                            .cholesterolContent(parseFloat(fields[16]))
-                            .sodiumContent(parseFloat(fields[17]))
-                            .carbohydrateContent(parseFloat(fields[18]))
-                            .fiberContent(parseFloat(fields[19]))
-                            .sugarContent(parseFloat(fields[20]))
-                            .proteinContent(parseFloat(fields[21]))
-                            .recipeServings((int)parseFloat(fields[22]))
-                            .recipeYield(fields[23] != null ? fields[23].trim() : "")
-                            .build();
-
-                    recipes.add(recipe);
-                }
-            }
-        }
-
-        return recipes;
+    public static List<RecipeRecord> loadRecipes(String filePath) throws IOException {
+        return RFC4180_CSV.parse(Paths.get(filePath), DatabaseCommand::toRecipe);
     }
 
     // 加载评论数据
-    public static List<ReviewRecord> loadReviews(String filePath) throws IOException, CsvException {
-        List<ReviewRecord> reviews = new ArrayList<>();
-
-        try (CSVReader reader = new CSVReader(new FileReader(filePath))) {
-            List<String[]> records = reader.readAll();
-
-            // 跳过标题行
-            for (int i = 1; i < records.size(); i++) {
-                String[] fields = records.get(i);
-
-                if (fields.length >= 9) {
-                    ReviewRecord review = ReviewRecord.builder().reviewId(parseLong(fields[0])).
-                            recipeId(parseLong(fields[1])).authorId(parseLong(fields[2])).
-                            authorName(fields[3] != null ? fields[3].trim() : "").
-                            rating(parseFloat(fields[4])).review(fields[5] != null ? fields[5].trim() : "").
-                            dateSubmitted(parseTimestamp(fields[6])).dateModified(parseTimestamp(fields[7])).
-                            likes(parseCsvLongList(fields[8])).build();
-
-                    reviews.add(review);
-                }
-            }
+    public static List<ReviewRecord> loadReviews(String filePath) throws IOException {
+        return BACKSLASH_CSV.parse(Paths.get(filePath), DatabaseCommand::toReview);
+    }
+
+    // 将 users.csv 的一行转换为 UserRecord，列数不足时返回 null
+    private static UserRecord toUser(CsvRow fields) {
+        if (fields.size() < 9) {
+            return null;
+        }
+        return UserRecord.builder().authorId(parseLong(fields.get(0))).authorName(fields.get(1).trim()).gender(fields.get(2).trim()).age(parseInt(fields.get(3))).
+                followers(parseInt(fields.get(4))).
+                following(parseInt(fields.get(5))).
+                followerUsers(fields.getLongs(6)).
+                followingUsers(fields.getLongs(7)).
+                password(fields.get(8).trim()).build();
+    }
+
+    // 将 recipes.csv 的一行转换为 RecipeRecord，列数不足时返回 null
+    private static RecipeRecord toRecipe(CsvRow fields) {
+        if (fields.size() < 24) {
+            return null;
         }
+        return RecipeRecord.builder()
+                .RecipeId(parseLong(fields.get(0)))
+                .name(fields.get(1).trim())
+                .authorId(parseLong(fields.get(2)))
+                .authorName(fields.get(3).trim())
+                .cookTime(fields.get(4).trim())
+                .prepTime(fields.get(5).trim())
+                .totalTime(fields.get(6).trim())
+                .datePublished(parseTimestamp(fields.get(7)))
+                .description(fields.get(8).trim())
+                .recipeCategory(fields.get(9).trim())
+                .recipeIngredientParts(parseCsvList(fields.get(10)))
+                .aggregatedRating(parseFloat(fields.get(11)))
+                .reviewCount((int)parseFloat(fields.get(12)))
+                .calories(parseFloat(fields.get(13)))
+                .fatContent(parseFloat(fields.get(14)))
+                .saturatedFatContent(parseFloat(fields.get(15)))
+                .cholesterolContent(parseFloat(fields.get(16)))
+                .sodiumContent(parseFloat(fields.get(17)))
+                .carbohydrateContent(parseFloat(fields.get(18)))
+                .fiberContent(parseFloat(fields.get(19)))
+                .sugarContent(parseFloat(fields.get(20)))
+                .proteinContent(parseFloat(fields.get(21)))
+                .recipeServings((int)parseFloat(fields.get(22)))
+                .recipeYield(fields.get(23).trim())
+                .build();
+    }
 
-        return reviews;
+    // 将 reviews.csv 的一行转换为 ReviewRecord，列数不足时返回 null
+    private static ReviewRecord toReview(CsvRow fields) {
+        if (fields.size() < 9) {
+            return null;
+        }
+        return ReviewRecord.builder().reviewId(parseLong(fields.get(0))).
+                recipeId(parseLong(fields.get(1))).authorId(parseLong(fields.get(2))).
+                authorName(fields.get(3).trim()).
+                rating(parseFloat(fields.get(4))).review(fields.get(5).trim()).
+                dateSubmitted(parseTimestamp(fields.get(6))).dateModified(parseTimestamp(fields.get(7))).
+                likes(fields.getLongs(8)).build();
     }
 
     @SneakyThrows
@@ -0,0 +1,323 @@
+package io.sustc.csv;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * CSV parser that splits a file into chunks at record boundaries and parses the chunks in parallel.
+ * <p>
+ * The file is memory-mapped and scanned once on the calling thread to find where records end; this scan
+ * only tracks quoting and allocates nothing. Every chunk of about {@code chunkBytes} is then tokenized and
+ * mapped on a fork-join pool while the scan continues, and the results are delivered in file order.
+ * The first record of the file is treated as the header and skipped.
+ * <p>
+ * A field is quoted if it starts with a quote, optionally after spaces. Inside a quoted field {@code ""}
+ * stands for one quote, and in the {@link Dialect#BACKSLASH} dialect {@code \"} and {@code \\} are escapes
+ * as well. Line breaks inside quoted fields are part of the value.
+ */
+public final class ChunkedCsvParser {
+
+    public enum Dialect {
+        /**
+         * Quotes are only escaped by doubling them, as with OpenCSV's {@code RFC4180Parser}.
+         */
+        RFC4180,
+        /**
+         * Backslash escapes are recognized too, as with OpenCSV's default {@code CSVParser}.
+         */
+        BACKSLASH
+    }
+
+    @FunctionalInterface
+    public interface RowMapper<T> {
+        /**
+         * @return the record for the row, or {@code null} to skip it
+         */
+        T map(CsvRow row);
+    }
+
+    private static final byte QUOTE = '"';
+    private static final byte COMMA = ',';
+    private static final byte SPACE = ' ';
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    private static final byte ESCAPE = '\\';
+
+    private static final int DEFAULT_CHUNK_BYTES = 4 << 20;
+
+    private final Dialect dialect;
+    private final ForkJoinPool pool;
+    private final int chunkBytes;
+
+    public ChunkedCsvParser(Dialect dialect) {
+        this(dialect, ForkJoinPool.commonPool(), DEFAULT_CHUNK_BYTES);
+    }
+
+    public ChunkedCsvParser(Dialect dialect, ForkJoinPool pool, int chunkBytes) {
+        this.dialect = dialect;
+        this.pool = pool;
+        this.chunkBytes = Math.max(1, chunkBytes);
+    }
+
+    /**
+     * Parses the whole file into a list, in file order.
+     */
+    public <T> List<T> parse(Path file, RowMapper<T> mapper) throws IOException {
+        List<T> records = new ArrayList<>();
+        parse(file, mapper, records::addAll);
+        return records;
+    }
+
+    /**
+     * Parses the file and passes the records of every chunk to the sink, in file order.
+     * <p>
+     * Only a few chunks are parsed ahead of the sink, so a slow sink bounds the memory in use.
+     */
+    public <T> void parse(Path file, RowMapper<T> mapper, Consumer<List<T>> sink) throws IOException {
+        ByteBuffer buf = map(file);
+        int limit = buf.limit();
+        int window = pool.getParallelism() * 2;
+
+        Deque<ForkJoinTask<List<T>>> inFlight = new ArrayDeque<>();
+        int pos = skipRecord(buf, 0, limit);
+        while (pos < limit) {
+            int from = pos;
+            int target = (int) Math.min(limit, (long) from + chunkBytes);
+            while (pos < target) {
+                pos = skipRecord(buf, pos, limit);
+            }
+            int to = pos;
+            inFlight.add(pool.submit(() -> parseChunk(buf, from, to, mapper)));
+            if (inFlight.size() >= window) {
+                sink.accept(inFlight.poll().join());
+            }
+        }
+        while (!inFlight.isEmpty()) {
+            sink.accept(inFlight.poll().join());
+        }
+    }
+
+    private static ByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is larger than 2 GiB");
+            }
+            // the mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    private <T> List<T> parseChunk(ByteBuffer buf, int from, int to, RowMapper<T> mapper) {
+        Row row = new Row(buf);
+        List<T> records = new ArrayList<>();
+        int pos = from;
+        while (pos < to) {
+            pos = row.read(pos, to);
+            if (row.isBlank()) {
+                continue;
+            }
+            T record = mapper.map(row);
+            if (record != null) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * @return the position after the line break that ends the record starting at {@code pos}
+     */
+    private int skipRecord(ByteBuffer buf, int pos, int limit) {
+        boolean fieldStart = true;
+        while (pos < limit) {
+            byte b = buf.get(pos++);
+            if (fieldStart && b == QUOTE) {
+                pos = skipQuoted(buf, pos, limit);
+                fieldStart = false;
+            } else if (b == COMMA) {
+                fieldStart = true;
+            } else if (b == LF) {
+                return pos;
+            } else if (b != SPACE) {
+                fieldStart = false;
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * @param pos the position after the opening quote
+     * @return the position after the closing quote
+     */
+    private int skipQuoted(ByteBuffer buf, int pos, int limit) {
+        while (pos < limit) {
+            byte b = buf.get(pos++);
+            if (b == QUOTE) {
+                if (pos < limit && buf.get(pos) == QUOTE) {
+                    pos++;
+                } else {
+                    return pos;
+                }
+            } else if (b == ESCAPE && isEscaped(buf, pos, limit)) {
+                pos++;
+            }
+        }
+        return limit;
+    }
+
+    private boolean isEscaped(ByteBuffer buf, int pos, int limit) {
+        if (dialect != Dialect.BACKSLASH || pos >= limit) {
+            return false;
+        }
+        byte next = buf.get(pos);
+        return next == QUOTE || next == ESCAPE;
+    }
+
+    /**
+     * Field boundaries of the current record as raw byte ranges; values are only decoded on access.
+     */
+    private final class Row implements CsvRow {
+
+        private final ByteBuffer buf;
+        private int[] starts = new int[32];
+        private int[] ends = new int[32];
+        private int size;
+        private byte[] scratch = new byte[256];
+
+        Row(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        int read(int pos, int limit) {
+            size = 0;
+            int start = pos;
+            boolean fieldStart = true;
+            while (pos < limit) {
+                byte b = buf.get(pos++);
+                if (fieldStart && b == QUOTE) {
+                    pos = skipQuoted(buf, pos, limit);
+                    fieldStart = false;
+                } else if (b == COMMA) {
+                    add(start, pos - 1);
+                    start = pos;
+                    fieldStart = true;
+                } else if (b == LF) {
+                    int end = pos - 1;
+                    if (end > start && buf.get(end - 1) == CR) {
+                        end--;
+                    }
+                    add(start, end);
+                    return pos;
+                } else if (b != SPACE) {
+                    fieldStart = false;
+                }
+            }
+            add(start, limit);
+            return limit;
+        }
+
+        boolean isBlank() {
+            return size == 1 && starts[0] == ends[0];
+        }
+
+        private void add(int start, int end) {
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+            starts[size] = start;
+            ends[size] = end;
+            size++;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public String get(int index) {
+            int start = starts[index];
+            int end = ends[index];
+            int p = start;
+            while (p < end && buf.get(p) == SPACE) {
+                p++;
+            }
+            if (p == end || buf.get(p) != QUOTE) {
+                byte[] bytes = scratch(end - start);
+                buf.get(start, bytes, 0, end - start);
+                return new String(bytes, 0, end - start, StandardCharsets.UTF_8);
+            }
+
+            byte[] bytes = scratch(end - p);
+            int n = 0;
+            boolean quoted = true;
+            p++;
+            while (p < end) {
+                byte b = buf.get(p++);
+                if (!quoted) {
+                    bytes[n++] = b;
+                } else if (b == QUOTE) {
+                    if (p < end && buf.get(p) == QUOTE) {
+                        bytes[n++] = QUOTE;
+                        p++;
+                    } else {
+                        quoted = false;
+                    }
+                } else if (b == ESCAPE && isEscaped(buf, p, end)) {
+                    bytes[n++] = buf.get(p++);
+                } else {
+                    bytes[n++] = b;
+                }
+            }
+            return new String(bytes, 0, n, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public long[] getLongs(int index) {
+            long[] values = new long[8];
+            int n = 0;
+            long value = 0;
+            boolean inNumber = false;
+            boolean negative = false;
+            for (int p = starts[index], end = ends[index]; p <= end; p++) {
+                byte b = p < end ? buf.get(p) : SPACE;
+                if (b >= '0' && b <= '9') {
+                    value = value * 10 + (b - '0');
+                    inNumber = true;
+                    continue;
+                }
+                if (inNumber) {
+                    if (n == values.length) {
+                        values = Arrays.copyOf(values, n * 2);
+                    }
+                    values[n++] = negative ? -value : value;
+                    value = 0;
+                    inNumber = false;
+                }
+                negative = b == '-';
+            }
+            return n == values.length ? values : Arrays.copyOf(values, n);
+        }
+
+        private byte[] scratch(int length) {
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            return scratch;
+        }
+    }
+}
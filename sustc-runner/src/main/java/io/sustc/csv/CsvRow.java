@@ -0,0 +1,22 @@
+package io.sustc.csv;
+
+/**
+ * One record handed to a {@link ChunkedCsvParser.RowMapper}.
+ * <p>
+ * The row is only valid during the call of the mapper, the parser reuses it for the next record.
+ */
+public interface CsvRow {
+
+    int size();
+
+    /**
+     * @return the unquoted and unescaped value of the field
+     */
+    String get(int index);
+
+    /**
+     * Decodes every integer literal in the field, ignoring any brackets, quotes and separators around them,
+     * so {@code "c(1, 2)"}, {@code "[1,2]"} and {@code "1, 2"} all give {@code {1, 2}}.
+     */
+    long[] getLongs(int index);
+}